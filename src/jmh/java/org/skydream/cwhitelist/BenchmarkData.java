@@ -0,0 +1,113 @@
+package org.skydream.cwhitelist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 基准测试用的确定性数据生成器，相同参数总是生成相同的白名单。
+ */
+final class BenchmarkData {
+    private static final long SEED = 0x5EED_C0DEL;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 生成指定大小与类型构成的条目列表。
+     *
+     * @param mix names（仅名称）、mixed（60% 名称、30% UUID、10% IP）或 ip（仅 IP 规则）
+     */
+    static List<WhitelistManager.WhitelistEntry> entries(int size, String mix) {
+        Random random = new Random(SEED);
+        List<WhitelistManager.WhitelistEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String type = switch (mix) {
+                case "names" -> "name";
+                case "ip" -> "ip";
+                default -> {
+                    int roll = random.nextInt(10);
+                    yield roll < 6 ? "name" : roll < 9 ? "uuid" : "ip";
+                }
+            };
+            String value = switch (type) {
+                case "name" -> name(i);
+                case "uuid" -> uuid(i).toString();
+                default -> ipv4Rule(random, i);
+            };
+            entries.add(new WhitelistManager.WhitelistEntry(type, value));
+        }
+        return entries;
+    }
+
+    static String name(int i) {
+        return "Player_" + i;
+    }
+
+    static UUID uuid(int i) {
+        return new UUID(0x1234_5678_9ABC_DEF0L, i);
+    }
+
+    /**
+     * 混合精确地址、/24 与 /16 前缀的 IPv4 规则。
+     */
+    static String ipv4Rule(Random random, int i) {
+        int a = 10 + (i >>> 16 & 0x7F);
+        int b = i >>> 8 & 0xFF;
+        int c = i & 0xFF;
+        return switch (random.nextInt(3)) {
+            case 0 -> a + "." + b + "." + c + ".7";
+            case 1 -> a + "." + b + "." + c + ".0/24";
+            default -> a + "." + b + ".0.0/16";
+        };
+    }
+
+    static String ipv4Rule(String kind, int i) {
+        int a = 10 + (i >>> 16 & 0x7F);
+        int b = i >>> 8 & 0xFF;
+        int c = i & 0xFF;
+        return switch (kind) {
+            case "exact" -> a + "." + b + "." + c + ".7";
+            case "cidr" -> a + "." + b + "." + c + ".0/24";
+            default -> a + "." + b + "." + c + ".*";
+        };
+    }
+
+    static String ipv6Rule(String kind, int i) {
+        String prefix = "2001:db8:" + Integer.toHexString(i >>> 16 & 0xFFFF) + ":" + Integer.toHexString(i & 0xFFFF);
+        return switch (kind) {
+            case "exact" -> prefix + "::7";
+            case "cidr" -> prefix + "::/64";
+            default -> prefix + ":*";
+        };
+    }
+
+    static String ipv4Address(int i) {
+        return (10 + (i >>> 16 & 0x7F)) + "." + (i >>> 8 & 0xFF) + "." + (i & 0xFF) + ".7";
+    }
+
+    static String ipv6Address(int i) {
+        return "2001:db8:" + Integer.toHexString(i >>> 16 & 0xFFFF) + ":" + Integer.toHexString(i & 0xFFFF) + "::7";
+    }
+
+    /**
+     * 生成 /whitelist/sync 全量响应的 JSON 文本。
+     */
+    static String syncResponse(List<WhitelistManager.WhitelistEntry> entries) {
+        StringBuilder sb = new StringBuilder(64 + entries.size() * 96);
+        sb.append("{\"success\":true,\"revision\":\"r1\",\"entries\":[");
+        for (int i = 0; i < entries.size(); i++) {
+            WhitelistManager.WhitelistEntry entry = entries.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(i)
+                    .append(",\"type\":\"").append(entry.getType())
+                    .append("\",\"value\":\"").append(entry.getValue())
+                    .append("\",\"is_active\":true,\"created_at\":\"2025-01-01T00:00:00\"}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+}
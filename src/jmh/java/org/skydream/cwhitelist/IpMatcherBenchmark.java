@@ -0,0 +1,48 @@
+package org.skydream.cwhitelist;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IpMatcher} 的匹配开销，覆盖 IPv4/IPv6、精确地址、CIDR 与通配符规则。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IpMatcherBenchmark {
+    @Param({"v4", "v6"})
+    public String family;
+
+    @Param({"exact", "cidr", "wildcard"})
+    public String kind;
+
+    @Param({"100", "10000", "100000"})
+    public int rules;
+
+    private IpMatcher matcher;
+
+    @Setup
+    public void setup() {
+        matcher = new IpMatcher();
+        for (int i = 0; i < rules; i++) {
+            matcher.add(family.equals("v4") ? BenchmarkData.ipv4Rule(kind, i) : BenchmarkData.ipv6Rule(kind, i));
+        }
+    }
+
+    @Benchmark
+    public boolean hit() {
+        int i = ThreadLocalRandom.current().nextInt(rules);
+        return matcher.matches(family.equals("v4") ? BenchmarkData.ipv4Address(i) : BenchmarkData.ipv6Address(i));
+    }
+
+    @Benchmark
+    public boolean miss() {
+        int i = ThreadLocalRandom.current().nextInt(rules);
+        return matcher.matches(family.equals("v4") ? "192.0.2." + (i & 0xFF) : "2001:db9::" + Integer.toHexString(i));
+    }
+}
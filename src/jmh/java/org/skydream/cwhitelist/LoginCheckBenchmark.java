@@ -0,0 +1,66 @@
+package org.skydream.cwhitelist;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录检查热路径：在已发布的快照索引上执行 {@link WhitelistManager#findMatch}，
+ * 与 {@code isAllowed} 中 ServerPlayer 字段提取之后的逻辑一致。
+ * 嵌套子类以不同线程数运行同一组基准，衡量并发读取时的扩展性。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class LoginCheckBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    @Param({"names", "mixed", "ip"})
+    public String mix;
+
+    private WhitelistManager.WhitelistIndex index;
+    private List<WhitelistManager.WhitelistEntry> entries;
+
+    @Setup
+    public void setup() {
+        entries = BenchmarkData.entries(size, mix);
+        index = new WhitelistManager.Snapshot(1, entries).index;
+    }
+
+    /** 白名单中的玩家：按名称、UUID 或 IP 之一命中 */
+    @Benchmark
+    public String hit() {
+        int i = ThreadLocalRandom.current().nextInt(size);
+        WhitelistManager.WhitelistEntry entry = entries.get(i);
+        String name = entry.getType().equals("name") ? entry.getValue() : "Stranger";
+        String uuid = entry.getType().equals("uuid") ? entry.getValue() : "00000000-0000-0000-0000-000000000000";
+        String ip = entry.getType().equals("ip") ? BenchmarkData.ipv4Address(i) : "192.0.2.1";
+        return WhitelistManager.findMatch(index, name, uuid, ip, true, true, true);
+    }
+
+    /** 不在白名单中的玩家：三种检查全部执行且均未命中 */
+    @Benchmark
+    public String miss() {
+        int i = size + ThreadLocalRandom.current().nextInt(size);
+        return WhitelistManager.findMatch(index, BenchmarkData.name(i), BenchmarkData.uuid(i).toString(),
+                "192.0.2." + (i & 0xFF), true, true, true);
+    }
+
+    @Threads(1)
+    public static class SingleThread extends LoginCheckBenchmark {
+    }
+
+    @Threads(4)
+    public static class FourThreads extends LoginCheckBenchmark {
+    }
+
+    @Threads(16)
+    public static class SixteenThreads extends LoginCheckBenchmark {
+    }
+}
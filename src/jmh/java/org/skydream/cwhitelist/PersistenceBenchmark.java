@@ -0,0 +1,87 @@
+package org.skydream.cwhitelist;
+
+import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 本地持久化：完整 JSON 保存/加载（saveToFile/loadFromFile 的序列化部分）、
+ * 二进制快照的写入与映射读取，以及单条日志追加。文件写在临时目录中。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+    private static final Gson GSON = new Gson();
+
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private List<WhitelistManager.WhitelistEntry> entries;
+    private Path dir;
+    private Path jsonPath;
+    private Path binaryPath;
+    private WhitelistJournal journal;
+    private WhitelistManager.WhitelistEntry journalEntry;
+
+    @Setup
+    public void setup() throws IOException {
+        entries = BenchmarkData.entries(size, "mixed");
+        dir = Files.createTempDirectory("cwhitelist-jmh");
+        jsonPath = dir.resolve("cwhitelist_entries.json");
+        binaryPath = dir.resolve("cwhitelist_entries.bin");
+        Files.writeString(jsonPath, GSON.toJson(entries));
+        BinarySnapshot.write(binaryPath, jsonPath, entries);
+
+        journal = new WhitelistJournal(dir.resolve("cwhitelist_entries.journal"), WhitelistJournal.FsyncPolicy.NEVER,
+                Integer.MAX_VALUE);
+        journal.open(null);
+        journalEntry = new WhitelistManager.WhitelistEntry("name", "Journal_Player");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void jsonSave() throws IOException {
+        Files.writeString(jsonPath, GSON.toJson(entries));
+    }
+
+    @Benchmark
+    public List<WhitelistManager.WhitelistEntry> jsonLoad() throws IOException {
+        return GSON.fromJson(Files.readString(jsonPath), new TypeToken<List<WhitelistManager.WhitelistEntry>>(){}.getType());
+    }
+
+    @Benchmark
+    public List<WhitelistManager.WhitelistEntry> binaryLoad() throws IOException {
+        return BinarySnapshot.read(binaryPath, jsonPath);
+    }
+
+    @Benchmark
+    public void binarySave() throws IOException {
+        BinarySnapshot.write(binaryPath, jsonPath, entries);
+    }
+
+    @Benchmark
+    public void journalAppend() throws IOException {
+        journal.append(true, journalEntry);
+    }
+}
@@ -0,0 +1,50 @@
+package org.skydream.cwhitelist;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /whitelist/sync 响应解析：当前的流式解析与先构建 JSON 树再转换的做法对比。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyncParsingBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        body = BenchmarkData.syncResponse(BenchmarkData.entries(size, "mixed")).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<WhitelistManager.WhitelistEntry> streaming() throws IOException {
+        return ApiClient.readSyncResponse(new ByteArrayInputStream(body)).entries;
+    }
+
+    @Benchmark
+    public List<WhitelistManager.WhitelistEntry> tree() {
+        JsonObject json = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+        List<WhitelistManager.WhitelistEntry> entries = new ArrayList<>();
+        for (JsonElement element : json.getAsJsonArray("entries")) {
+            JsonObject obj = element.getAsJsonObject();
+            entries.add(new WhitelistManager.WhitelistEntry(obj.get("type").getAsString(), obj.get("value").getAsString()));
+        }
+        return entries;
+    }
+}
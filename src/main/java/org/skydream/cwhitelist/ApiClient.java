@@ -1,29 +1,51 @@
 package org.skydream.cwhitelist;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import io.netty.channel.local.LocalAddress;
 import net.minecraft.server.level.ServerPlayer;
 import org.slf4j.Logger;
 import com.mojang.logging.LogUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.net.*;
 import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class ApiClient {
     private static final Logger LOGGER = LogUtils.getLogger();
     private static final Gson GSON = new GsonBuilder().create();
 
+    // HTTP 客户端与响应处理使用的执行器：每个任务一个虚拟线程，不占用公共 ForkJoinPool
+    private static final ExecutorService REQUEST_EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("CWhitelist-Http-", 0).factory());
+
     private static HttpClient httpClient;
     private static String baseUrl;
     private static String apiToken;
@@ -35,15 +57,48 @@ public class ApiClient {
     // 缓存相关
     private static final Map<String, CacheEntry> whitelistCache = new ConcurrentHashMap<>();
     private static int cacheDurationSeconds = 0;
-    private static Instant lastSyncTime = Instant.MIN;
+    private static int cacheStaleWhileRevalidateSeconds = 0;
+    private static int cacheStaleIfErrorSeconds = 0;
+    // 缓存过期后只允许一个后台刷新请求在途
+    private static final AtomicBoolean revalidating = new AtomicBoolean(false);
+    private static volatile Instant lastSyncTime = Instant.MIN;
+
+    // 增量同步游标：上次同步时服务端返回的修订号，为 null 时只能全量同步
+    private static volatile String syncCursor = null;
+
+    // 上次全量同步的校验值，用于条件请求；服务端未返回 ETag/Last-Modified 时为 null
+    private static volatile SyncValidator syncValidator = null;
+
+    // 二进制格式协商：服务端用 CBOR 应答过同步请求后，请求体也改用 CBOR；收到 415 后固定使用 JSON
+    private static final String ACCEPT_SYNC_BINARY = Cbor.CONTENT_TYPE + ", application/json;q=0.9";
+    private static volatile boolean binaryAccepted = false;
+    private static volatile boolean binaryBodiesRejected = false;
+    private static boolean deltaSyncEnabled = true;
 
     // Token权限信息
     private static TokenInfo tokenInfo = null;
     private static final AtomicBoolean isTokenVerified = new AtomicBoolean(false);
 
-    // 请求队列
-    private static final Queue<Runnable> requestQueue = new ArrayDeque<>();
-    private static boolean isProcessingQueue = false;
+    // 请求分发
+    private static final Path REQUEST_SPILL_PATH = Paths.get("config/cwhitelist_request_spill.jsonl");
+    private static RequestDispatcher dispatcher;
+
+    // 熔断器，未启用时为 null
+    private static CircuitBreaker circuitBreaker;
+
+    // 对冲与重试：样本不足时对冲延迟取超时的 1/4；同一截止时间内最多尝试 3 次
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    private static final long HEDGE_WINDOW_MILLIS = Metrics.Histogram.SLOT_MILLIS * Metrics.Histogram.SLOTS;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BASE_MILLIS = 200;
+
+    // 指标名称后缀：增量同步与 304 响应与全量响应分开记录耗时
+    private static final String DELTA_SUFFIX = "#delta";
+    private static final String NOT_MODIFIED_SUFFIX = "#not_modified";
+    // 删除条目的接口路径带有条目本身，指标中统一记为模板，避免每个条目一个直方图
+    private static final String ENTRY_PATH_PREFIX = "/whitelist/entries/";
+    private static final String ENTRY_PATH_TEMPLATE = ENTRY_PATH_PREFIX + ":type/:value";
+    private static final String BULK_PATH = ENTRY_PATH_PREFIX + "bulk";
 
     // 心跳
     private static final int HEARTBEAT_NORMAL_SECONDS = 30;
@@ -59,20 +114,91 @@ public class ApiClient {
         return forceRefresh;
     }
 
+    /**
+     * 缓存条目。过期后在 stale-while-revalidate 窗口内仍可直接返回，
+     * 在 stale-if-error 窗口内可作为同步失败时的后备；写操作之后标记为 invalidated，
+     * 下次读取必须等待网络，但失败时仍可退回此数据。
+     */
     static class CacheEntry {
         final Object data;
         final Instant expiryTime;
+        final boolean invalidated;
 
         CacheEntry(Object data, int durationSeconds) {
+            this(data, Instant.now().plusSeconds(durationSeconds), false);
+        }
+
+        private CacheEntry(Object data, Instant expiryTime, boolean invalidated) {
             this.data = data;
-            this.expiryTime = Instant.now().plusSeconds(durationSeconds);
+            this.expiryTime = expiryTime;
+            this.invalidated = invalidated;
         }
 
         boolean isExpired() {
-            return Instant.now().isAfter(expiryTime);
+            return invalidated || Instant.now().isAfter(expiryTime);
+        }
+
+        /**
+         * 过期不超过 staleSeconds 秒。
+         */
+        boolean isWithinStaleWindow(int staleSeconds) {
+            return Instant.now().isBefore(expiryTime.plusSeconds(staleSeconds));
+        }
+
+        CacheEntry invalidate() {
+            return new CacheEntry(data, expiryTime, true);
+        }
+    }
+
+    /**
+     * 携带HTTP状态码的API请求异常。
+     */
+    public static class ApiException extends IOException {
+        public final int statusCode;
+
+        public ApiException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+    }
+
+    /**
+     * 一次同步的结果：全量列表，或相对上次游标的增量（新增与删除的条目）。
+     */
+    public static class SyncResult {
+        public final boolean full;
+        public final List<WhitelistManager.WhitelistEntry> entries;
+        public final List<WhitelistManager.WhitelistEntry> added;
+        public final List<WhitelistManager.WhitelistEntry> removed;
+
+        private SyncResult(boolean full, List<WhitelistManager.WhitelistEntry> entries,
+                           List<WhitelistManager.WhitelistEntry> added,
+                           List<WhitelistManager.WhitelistEntry> removed) {
+            this.full = full;
+            this.entries = entries;
+            this.added = added;
+            this.removed = removed;
+        }
+
+        static SyncResult full(List<WhitelistManager.WhitelistEntry> entries) {
+            return new SyncResult(true, entries, Collections.emptyList(), Collections.emptyList());
+        }
+
+        static SyncResult delta(List<WhitelistManager.WhitelistEntry> added,
+                                List<WhitelistManager.WhitelistEntry> removed) {
+            return new SyncResult(false, Collections.emptyList(), added, removed);
         }
     }
 
+    /**
+     * 一次全量同步的 ETag/Last-Modified 与解析结果。下次同步以条件请求发送，
+     * 服务端返回 304 时直接复用 entries，不再下载和解析列表。
+     * resource 为不含 force_refresh 的同步地址，查询参数变化后校验值不再适用。
+     */
+    private record SyncValidator(String resource, String etag, String lastModified, String revision,
+                                 List<WhitelistManager.WhitelistEntry> entries) {
+    }
+
     public static class TokenInfo {
         public final String id;
         public final String name;
@@ -205,14 +331,18 @@ public class ApiClient {
         useHeaderAuth = Config.API_USE_HEADER_AUTH.get();
         timeoutSeconds = Config.API_TIMEOUT_SECONDS.get();
         cacheDurationSeconds = Config.API_CACHE_DURATION_SECONDS.get();
+        cacheStaleWhileRevalidateSeconds = Config.API_CACHE_STALE_WHILE_REVALIDATE_SECONDS.get();
+        cacheStaleIfErrorSeconds = Config.API_CACHE_STALE_IF_ERROR_SECONDS.get();
         serverId = Config.SERVER_ID.get();
         includeExpired = Config.API_INCLUDE_EXPIRED.get();
+        deltaSyncEnabled = Config.API_DELTA_SYNC.get();
 
         LOGGER.info("API Configuration:");
         LOGGER.info("  Base URL: {}", baseUrl);
         LOGGER.info("  Use Header Auth: {}", useHeaderAuth);
         LOGGER.info("  Timeout: {} seconds", timeoutSeconds);
-        LOGGER.info("  Cache Duration: {} seconds", cacheDurationSeconds);
+        LOGGER.info("  Cache Duration: {} seconds (stale-while-revalidate {}s, stale-if-error {}s)",
+                cacheDurationSeconds, cacheStaleWhileRevalidateSeconds, cacheStaleIfErrorSeconds);
         LOGGER.info("  Token configured: {}",
                 apiToken != null && !apiToken.trim().isEmpty() ? "YES" : "NO");
 
@@ -233,12 +363,37 @@ public class ApiClient {
 
         // 创建HTTP客户端
         httpClient = HttpClient.newBuilder()
+                .executor(REQUEST_EXECUTOR)
                 .connectTimeout(Duration.ofSeconds(timeoutSeconds))
                 .version(HttpClient.Version.HTTP_2)
                 .build();
 
+        if (Config.API_CIRCUIT_BREAKER.get()) {
+            circuitBreaker = new CircuitBreaker(
+                    Config.API_CIRCUIT_WINDOW_SIZE.get(),
+                    Config.API_CIRCUIT_FAILURE_RATE.get(),
+                    Config.API_CIRCUIT_SLOW_CALL_RATE.get(),
+                    Config.API_CIRCUIT_SLOW_CALL_MILLIS.get(),
+                    TimeUnit.SECONDS.toMillis(Config.API_CIRCUIT_OPEN_SECONDS.get()),
+                    TimeUnit.SECONDS.toMillis(Config.API_CIRCUIT_MAX_OPEN_SECONDS.get()));
+        }
+
+        // 熔断期间后台请求留在队列中（或按溢出策略写入磁盘），恢复后再发送
+        dispatcher = new RequestDispatcher(
+                Config.API_REQUEST_QUEUE_CAPACITY.get(),
+                Config.API_REQUEST_CONCURRENCY.get(),
+                Config.API_REQUEST_OVERFLOW_POLICY.get(),
+                REQUEST_SPILL_PATH,
+                () -> circuitBreaker == null || circuitBreaker.isCallPermitted(),
+                request -> sendRequest(request.endpoint(), request.method(), request.contentType(), request.body(), false));
+        dispatcher.start();
+
         LOGGER.info("API client initialized successfully");
 
+        if (Config.API_LOG_LOGIN_EVENTS.get()) {
+            EventBatcher.start();
+        }
+
         // 首先测试健康检查（不需要Token）
         LOGGER.info("Testing API health check...");
         healthCheck().thenAccept(healthy -> {
@@ -280,10 +435,20 @@ public class ApiClient {
         });
 
         LOGGER.info("Heartbeat started (interval: {}s)", HEARTBEAT_NORMAL_SECONDS);
-        scheduleHeartbeat(HEARTBEAT_NORMAL_SECONDS);
+        scheduleHeartbeat(TimeUnit.SECONDS.toMillis(HEARTBEAT_NORMAL_SECONDS));
+    }
+
+    /**
+     * 心跳失败后的下一次间隔：至少为快速间隔；熔断器打开时等到其允许探测为止，
+     * 因此心跳本身就是按指数退避进行的半开探测。
+     */
+    private static long failedHeartbeatDelayMillis() {
+        long fast = TimeUnit.SECONDS.toMillis(HEARTBEAT_FAST_SECONDS);
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker == null ? fast : Math.max(fast, breaker.getRetryDelayMillis());
     }
 
-    private static void scheduleHeartbeat(int delaySeconds) {
+    private static void scheduleHeartbeat(long delayMillis) {
         if (!heartbeatRunning.get()) {
             return;
         }
@@ -295,7 +460,9 @@ public class ApiClient {
                 return;
             }
 
+            long startNanos = System.nanoTime();
             healthCheck().thenAccept(healthy -> {
+                Metrics.recordNanos("api.heartbeat", System.nanoTime() - startNanos);
                 if (!heartbeatRunning.get() || !isEnabled()) {
                     return;
                 }
@@ -306,14 +473,14 @@ public class ApiClient {
                         LOGGER.info("✅ Heartbeat recovered, restoring normal interval ({}s)",
                                 HEARTBEAT_NORMAL_SECONDS);
                     }
-                    scheduleHeartbeat(HEARTBEAT_NORMAL_SECONDS);
+                    scheduleHeartbeat(TimeUnit.SECONDS.toMillis(HEARTBEAT_NORMAL_SECONDS));
                 } else {
                     if (heartbeatHealthy) {
                         heartbeatHealthy = false;
                         LOGGER.warn("⚠ Heartbeat failed, switching to fast interval ({}s)",
                                 HEARTBEAT_FAST_SECONDS);
                     }
-                    scheduleHeartbeat(HEARTBEAT_FAST_SECONDS);
+                    scheduleHeartbeat(failedHeartbeatDelayMillis());
                 }
             }).exceptionally(e -> {
                 if (heartbeatRunning.get() && isEnabled()) {
@@ -322,11 +489,11 @@ public class ApiClient {
                         LOGGER.warn("⚠ Heartbeat error: {}, switching to fast interval ({}s)",
                                 e.getMessage(), HEARTBEAT_FAST_SECONDS);
                     }
-                    scheduleHeartbeat(HEARTBEAT_FAST_SECONDS);
+                    scheduleHeartbeat(failedHeartbeatDelayMillis());
                 }
                 return null;
             });
-        }, delaySeconds, TimeUnit.SECONDS);
+        }, delayMillis, TimeUnit.MILLISECONDS);
     }
 
     public static boolean isEnabled() {
@@ -342,7 +509,7 @@ public class ApiClient {
             return CompletableFuture.completedFuture(false);
         }
 
-        return sendRequest("/tokens/verify", "GET", null, false)
+        return sendIdempotent("/tokens/verify", Map.of(), false, STRING_READER, newDeadline())
                 .thenApply(response -> {
                     try {
                         JsonObject json = JsonParser.parseString(response).getAsJsonObject();
@@ -382,7 +549,11 @@ public class ApiClient {
                     }
                 })
                 .exceptionally(e -> {
-                    LOGGER.error("Health check failed", e);
+                    if (e.getCause() instanceof CircuitBreaker.OpenException) {
+                        LOGGER.debug("Health check skipped: {}", e.getCause().getMessage());
+                    } else {
+                        LOGGER.error("Health check failed", e);
+                    }
                     return false;
                 });
     }
@@ -395,26 +566,130 @@ public class ApiClient {
      * 同步白名单，可指定是否强制刷新
      */
     public static CompletableFuture<List<?>> syncWhitelist(boolean force) {
+        return syncWhitelist(force, true, newDeadline());
+    }
+
+    /**
+     * 同步白名单，请求（包括对冲与重试）须在 deadlineNanos 之前完成。
+     * 无法取得列表时 future 以异常完成，调用方应保留现有的白名单，而不是把它当作空列表。
+     * allowStale 为 false 时失败不退回上次同步的列表。
+     */
+    private static CompletableFuture<List<?>> syncWhitelist(boolean force, boolean allowStale, long deadlineNanos) {
         if (!isEnabled()) {
-            return CompletableFuture.completedFuture(Collections.emptyList());
+            return CompletableFuture.failedFuture(new IllegalStateException("API is not enabled"));
         }
 
         // 检查Token权限
         if (!hasValidToken() || !tokenInfo.isValidForReading()) {
             LOGGER.error("Token does not have read permission or is invalid");
-            return CompletableFuture.completedFuture(Collections.emptyList());
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("Token does not have read permission or is invalid"));
         }
 
         // 检查缓存，除非强制刷新
         if (cacheDurationSeconds > 0 && !force) {
             CacheEntry cached = whitelistCache.get("whitelist");
             if (cached != null && !cached.isExpired()) {
+                Metrics.increment("api.sync.cache_hit");
                 LOGGER.debug("Returning cached whitelist");
                 return CompletableFuture.completedFuture((List<WhitelistManager.WhitelistEntry>) cached.data);
             }
+            if (cached != null && !cached.invalidated && cached.isWithinStaleWindow(cacheStaleWhileRevalidateSeconds)) {
+                // 过期数据立即返回，由一个后台请求刷新缓存，调用方不等待网络
+                Metrics.increment("api.sync.cache_stale");
+                revalidateInBackground();
+                return CompletableFuture.completedFuture((List<WhitelistManager.WhitelistEntry>) cached.data);
+            }
+            Metrics.increment("api.sync.cache_miss");
         }
 
-        // 构建查询参数
+        return fetchWhitelist(force, allowStale, deadlineNanos);
+    }
+
+    /**
+     * 缓存过期后在后台刷新；已有刷新在途时直接返回。
+     */
+    private static void revalidateInBackground() {
+        if (!revalidating.compareAndSet(false, true)) {
+            return;
+        }
+        LOGGER.debug("Whitelist cache expired, refreshing in the background");
+        fetchWhitelist(false, false, newDeadline()).whenComplete((entries, e) -> revalidating.set(false));
+    }
+
+    /**
+     * 从 API 拉取完整白名单并更新缓存；失败时若 allowStale 为 true 且仍在 stale-if-error 窗口内，
+     * 退回上次成功同步的列表，否则 future 以异常完成。
+     */
+    private static CompletableFuture<List<?>> fetchWhitelist(boolean force, boolean allowStale, long deadlineNanos) {
+        String resource = buildSyncUrl(false, null);
+        return sendIdempotent(buildSyncUrl(force, null), syncHeaders(resource, force), false,
+                ApiClient::readSyncResponse, deadlineNanos)
+                .<List<?>>thenApply(payload -> {
+                    if (payload.success) {
+                        List<WhitelistManager.WhitelistEntry> entries;
+                        if (payload.notModified) {
+                            SyncValidator validator = syncValidator;
+                            if (validator == null) {
+                                throw new IllegalStateException("API answered 304 but no whitelist is cached");
+                            }
+                            entries = validator.entries();
+                            syncCursor = validator.revision();
+                            Metrics.increment("api.sync.not_modified");
+                        } else {
+                            entries = Collections.unmodifiableList(payload.entries);
+                            syncCursor = payload.revision;
+                            syncValidator = payload.etag != null || payload.lastModified != null
+                                    ? new SyncValidator(resource, payload.etag, payload.lastModified,
+                                            payload.revision, entries)
+                                    : null;
+                        }
+                        lastSyncTime = Instant.now();
+
+                        // 更新缓存；缓存时长为 0 时仍保留一份作为失败时的后备
+                        if (cacheDurationSeconds > 0 || cacheStaleIfErrorSeconds > 0) {
+                            whitelistCache.put("whitelist", new CacheEntry(entries, cacheDurationSeconds));
+                            LOGGER.debug("Updated cache with {} entries, expires at {}",
+                                    entries.size(),
+                                    Instant.now().plusSeconds(cacheDurationSeconds));
+                        }
+
+                        if (payload.notModified) {
+                            LOGGER.debug("Whitelist not modified since last sync, reusing {} entries", entries.size());
+                        } else {
+                            LOGGER.info("Successfully synced {} whitelist entries from API", entries.size());
+                        }
+                        return entries;
+                    } else {
+                        throw new CompletionException(new IOException("API sync failed: " + payload.message));
+                    }
+                })
+                .exceptionally(e -> {
+                    LOGGER.error("Failed to sync whitelist from API", e);
+                    return staleIfError(e, allowStale);
+                });
+    }
+
+    /**
+     * 同步失败时的结果：缓存过期不超过 stale-if-error 窗口时返回上次成功同步的列表，
+     * 否则重新抛出原来的异常。
+     */
+    private static List<WhitelistManager.WhitelistEntry> staleIfError(Throwable error, boolean allowStale) {
+        CacheEntry cached = allowStale ? whitelistCache.get("whitelist") : null;
+        if (cached == null || !cached.isWithinStaleWindow(cacheStaleIfErrorSeconds)) {
+            throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+        }
+        List<WhitelistManager.WhitelistEntry> entries = (List<WhitelistManager.WhitelistEntry>) cached.data;
+        Metrics.increment("api.sync.stale_if_error");
+        LOGGER.warn("Serving the last synced whitelist ({} entries, expired at {}) while the API is unavailable",
+                entries.size(), cached.expiryTime);
+        return entries;
+    }
+
+    /**
+     * 构建 /whitelist/sync 的请求地址，since 不为 null 时请求增量。
+     */
+    private static String buildSyncUrl(boolean force, String since) {
         StringBuilder urlBuilder = new StringBuilder("/whitelist/sync");
         urlBuilder.append("?only_active=true");
 
@@ -432,58 +707,268 @@ public class ApiClient {
             urlBuilder.append("&include_expired=true");
         }
 
-        return sendRequest(urlBuilder.toString(), "GET", null, false)
-                .thenApply(response -> {
-                    try {
-                        JsonObject json = JsonParser.parseString(response).getAsJsonObject();
-                        if (json.get("success").getAsBoolean()) {
-                            JsonArray entriesJson = json.get("entries").getAsJsonArray();
-                            List<WhitelistManager.WhitelistEntry> entries = new ArrayList<>();
-
-                            for (JsonElement elem : entriesJson) {
-                                JsonObject entryJson = elem.getAsJsonObject();
-                                String type = entryJson.get("type").getAsString();
-                                String value = entryJson.get("value").getAsString();
-
-                                // 验证类型
-                                if (Arrays.asList("name", "uuid", "ip").contains(type)) {
-                                    entries.add(new WhitelistManager.WhitelistEntry(type, value));
-                                } else {
-                                    LOGGER.warn("Ignoring entry with invalid type: {}", type);
-                                }
-                            }
+        if (since != null) {
+            urlBuilder.append("&since=").append(URLEncoder.encode(since, java.nio.charset.StandardCharsets.UTF_8));
+        }
 
-                            // 更新缓存
-                            if (cacheDurationSeconds > 0) {
-                                whitelistCache.put("whitelist", new CacheEntry(entries, cacheDurationSeconds));
-                                lastSyncTime = Instant.now();
-                                LOGGER.debug("Updated cache with {} entries, expires at {}",
-                                        entries.size(),
-                                        Instant.now().plusSeconds(cacheDurationSeconds));
-                            }
+        return urlBuilder.toString();
+    }
 
-                            LOGGER.info("Successfully synced {} whitelist entries from API", entries.size());
-                            return entries;
+    /**
+     * 同步请求的附加请求头：启用二进制格式时在 Accept 中优先 CBOR；
+     * 上次对 resource 的全量同步返回过校验值且不是强制刷新时，附加 If-None-Match / If-Modified-Since。
+     */
+    private static Map<String, String> syncHeaders(String resource, boolean force) {
+        Map<String, String> headers = new HashMap<>(4);
+        if (Config.API_BINARY_WIRE_FORMAT.get()) {
+            headers.put("Accept", ACCEPT_SYNC_BINARY);
+        }
+        SyncValidator validator = syncValidator;
+        if (force || validator == null || !validator.resource().equals(resource)) {
+            return headers;
+        }
+        if (validator.etag() != null) {
+            headers.put("If-None-Match", validator.etag());
+        }
+        if (validator.lastModified() != null) {
+            headers.put("If-Modified-Since", validator.lastModified());
+        }
+        return headers;
+    }
+
+    private static final Set<String> VALID_ENTRY_TYPES = Set.of("name", "uuid", "ip");
+
+    /**
+     * /whitelist/sync 响应的解析结果。
+     */
+    static final class SyncPayload {
+        boolean success = false;
+        String message = "";
+        String revision = null;
+        boolean delta = false;
+        boolean cursorExpired = false;
+        boolean notModified = false;
+        String etag = null;
+        String lastModified = null;
+        List<WhitelistManager.WhitelistEntry> entries = new ArrayList<>();
+        List<WhitelistManager.WhitelistEntry> added = new ArrayList<>();
+        List<WhitelistManager.WhitelistEntry> removed = new ArrayList<>();
+    }
+
+    /**
+     * 以流式方式解析 /whitelist/sync 响应：逐条读取条目直接放入结果列表，
+     * 不在堆上保留响应字符串或 JSON 树，峰值内存只取决于条目本身。
+     * 304 响应没有响应体，只标记 notModified。
+     */
+    static SyncPayload readSyncResponse(InputStream in, HttpResponse<?> response) throws IOException {
+        SyncPayload payload = new SyncPayload();
+        if (response.statusCode() == 304) {
+            payload.success = true;
+            payload.notModified = true;
+            return payload;
+        }
+        payload.etag = response.headers().firstValue("ETag").orElse(null);
+        payload.lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        if (Cbor.isCbor(response.headers().firstValue("Content-Type").orElse(null))) {
+            if (!binaryAccepted) {
+                binaryAccepted = true;
+                LOGGER.info("API supports CBOR, using it for sync responses{}",
+                        binaryBodiesRejected ? "" : " and request bodies");
+            }
+            return readSyncResponseCbor(in, payload);
+        }
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case "success" -> payload.success = reader.nextBoolean();
+                    case "message" -> payload.message = reader.nextString();
+                    case "revision" -> payload.revision = reader.nextString();
+                    case "delta" -> payload.delta = reader.nextBoolean();
+                    case "cursor_expired" -> payload.cursorExpired = reader.nextBoolean();
+                    case "entries" -> readEntries(reader, payload.entries);
+                    case "added" -> readEntries(reader, payload.added);
+                    case "removed" -> readEntries(reader, payload.removed);
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return payload;
+    }
+
+    private static void readEntries(JsonReader reader, List<WhitelistManager.WhitelistEntry> out) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String type = null;
+            String value = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (field.equals("type")) {
+                    type = reader.nextString();
+                } else if (field.equals("value")) {
+                    value = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            // 验证类型
+            if (type != null && value != null && VALID_ENTRY_TYPES.contains(type)) {
+                out.add(new WhitelistManager.WhitelistEntry(type, value));
+            } else {
+                LOGGER.warn("Ignoring entry with invalid type: {}", type);
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * 读取 CBOR 编码的 /whitelist/sync 响应，结构与 JSON 相同。
+     */
+    private static SyncPayload readSyncResponseCbor(InputStream in, SyncPayload payload) throws IOException {
+        Cbor.Reader reader = new Cbor.Reader(in);
+        reader.beginMap();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peekNull()) {
+                reader.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "success" -> payload.success = reader.nextBoolean();
+                case "message" -> payload.message = reader.nextString();
+                case "revision" -> payload.revision = reader.nextString();
+                case "delta" -> payload.delta = reader.nextBoolean();
+                case "cursor_expired" -> payload.cursorExpired = reader.nextBoolean();
+                case "entries" -> readEntries(reader, payload.entries);
+                case "added" -> readEntries(reader, payload.added);
+                case "removed" -> readEntries(reader, payload.removed);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endMap();
+        return payload;
+    }
+
+    private static void readEntries(Cbor.Reader reader, List<WhitelistManager.WhitelistEntry> out) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String type = null;
+            String value = null;
+            reader.beginMap();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (reader.peekNull()) {
+                    reader.nextNull();
+                } else if (field.equals("type")) {
+                    type = reader.nextString();
+                } else if (field.equals("value")) {
+                    value = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endMap();
+
+            if (type != null && value != null && VALID_ENTRY_TYPES.contains(type)) {
+                out.add(new WhitelistManager.WhitelistEntry(type, value));
+            } else {
+                LOGGER.warn("Ignoring entry with invalid type: {}", type);
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * 增量同步：携带上次的修订号请求自那以后新增与删除的条目。
+     * 以下情况退回全量同步：未启用增量同步、尚无游标、服务端返回 410 或 cursor_expired、
+     * 服务端不支持增量而直接返回了完整列表。
+     * Token 无读取权限或服务端返回失败时异常完成，游标保持不变。
+     */
+    public static CompletableFuture<SyncResult> syncWhitelistDelta() {
+        // 增量请求与退回的全量同步共用同一个截止时间
+        long deadlineNanos = newDeadline();
+        String cursor = syncCursor;
+        if (!deltaSyncEnabled || cursor == null || !isEnabled()) {
+            return fullSyncResult(deadlineNanos);
+        }
+
+        if (!hasValidToken() || !tokenInfo.isValidForReading()) {
+            LOGGER.error("Token does not have read permission or is invalid");
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("Token does not have read permission or is invalid"));
+        }
+
+        return sendIdempotent(buildSyncUrl(false, cursor), syncHeaders(null, false), false, ApiClient::readSyncResponse,
+                deadlineNanos)
+                .handle((payload, e) -> {
+                    // 只有请求本身失败才退回全量同步；服务端明确返回失败时直接失败，调用方保留游标
+                    if (e != null) {
+                        if (findApiStatus(e) == 410) {
+                            LOGGER.info("Sync cursor {} rejected by API, performing full resync", cursor);
                         } else {
-                            LOGGER.error("API sync failed: {}", json.get("message").getAsString());
-                            return Collections.emptyList();
+                            LOGGER.warn("Delta sync request failed, performing full resync: {}", e.getMessage());
                         }
-                    } catch (Exception e) {
-                        LOGGER.error("Failed to parse whitelist sync response", e);
-                        return Collections.emptyList();
+                        return fullSyncResult(deadlineNanos);
                     }
+                    if (payload.cursorExpired) {
+                        LOGGER.info("Sync cursor {} expired, performing full resync", cursor);
+                        return fullSyncResult(deadlineNanos);
+                    }
+                    if (!payload.success) {
+                        return CompletableFuture.<SyncResult>failedFuture(
+                                new IOException("API delta sync failed: " + payload.message));
+                    }
+
+                    syncCursor = payload.revision;
+                    lastSyncTime = Instant.now();
+                    if (!payload.delta) {
+                        // 服务端不支持增量，返回的是完整列表
+                        return CompletableFuture.completedFuture(SyncResult.full(payload.entries));
+                    }
+
+                    invalidateWhitelistCache();
+                    LOGGER.info("Delta sync from API: +{} -{} entries", payload.added.size(), payload.removed.size());
+                    return CompletableFuture.completedFuture(SyncResult.delta(payload.added, payload.removed));
                 })
-                .exceptionally(e -> {
-                    LOGGER.error("Failed to sync whitelist from API", e);
-                    return Collections.emptyList();
-                });
+                .thenCompose(next -> next);
+    }
+
+    /**
+     * 增量同步退回的全量同步。缓存中的旧列表可能早于已应用的增量，因此失败时不使用它。
+     */
+    private static CompletableFuture<SyncResult> fullSyncResult(long deadlineNanos) {
+        return syncWhitelist(true, false, deadlineNanos).thenApply(entries ->
+                SyncResult.full((List<WhitelistManager.WhitelistEntry>) entries));
+    }
+
+    /**
+     * 在异常链中查找 {@link ApiException} 的状态码，找不到返回 -1。
+     */
+    static int findApiStatus(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ApiException apiException) {
+                return apiException.statusCode;
+            }
+        }
+        return -1;
     }
 
     /**
      * 强制从API刷新白名单（忽略缓存）
      */
     public static CompletableFuture<List<?>> forceSyncWhitelist() {
-        // 清除缓存
+        // 清除缓存；失败时 future 以异常完成，调用方保留现有白名单
         clearCache();
         return syncWhitelist(true);
     }
@@ -514,8 +999,8 @@ public class ApiClient {
                         boolean success = json.get("success").getAsBoolean();
 
                         if (success) {
-                            // 清除缓存
-                            whitelistCache.remove("whitelist");
+                            // 使缓存失效，失败时仍可退回旧列表
+                            invalidateWhitelistCache();
                             LOGGER.info("Successfully added entry via API: {}={}",
                                     entry.getType(), entry.getValue());
                         } else {
@@ -540,6 +1025,90 @@ public class ApiClient {
                 });
     }
 
+    /**
+     * 通过一次 {@code POST /whitelist/entries/bulk} 请求上传多个条目。
+     */
+    public static CompletableFuture<Boolean> addEntries(Collection<WhitelistManager.WhitelistEntry> entries) {
+        if (!isEnabled()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        if (!hasValidToken() || !tokenInfo.isValidForWriting()) {
+            LOGGER.error("Token does not have write permission or is invalid");
+            return CompletableFuture.completedFuture(false);
+        }
+
+        CompletableFuture<String> request;
+        if (useBinaryBodies()) {
+            request = sendRequest("/whitelist/entries/bulk", "POST", Cbor.CONTENT_TYPE, writeEntriesCbor(entries), false)
+                    .exceptionallyCompose(e -> {
+                        if (findApiStatus(e) != 415) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                        rejectBinaryBodies();
+                        return sendRequest("/whitelist/entries/bulk", "POST", writeEntriesJson(entries), false);
+                    });
+        } else {
+            request = sendRequest("/whitelist/entries/bulk", "POST", writeEntriesJson(entries), false);
+        }
+
+        return request
+                .thenApply(response -> {
+                    try {
+                        JsonObject json = JsonParser.parseString(response).getAsJsonObject();
+                        boolean success = json.get("success").getAsBoolean();
+
+                        if (success) {
+                            invalidateWhitelistCache();
+                            LOGGER.info("Successfully uploaded {} entries via API", entries.size());
+                        } else {
+                            LOGGER.error("Failed to upload entries via API: {}",
+                                    json.has("message") ? json.get("message").getAsString() : "unknown error");
+                        }
+                        return success;
+                    } catch (Exception e) {
+                        LOGGER.error("Failed to parse bulk add response", e);
+                        return false;
+                    }
+                })
+                .exceptionally(e -> {
+                    LOGGER.error("Failed to upload entries via API", e);
+                    return false;
+                });
+    }
+
+    private static String writeEntriesJson(Collection<WhitelistManager.WhitelistEntry> entries) {
+        JsonArray array = new JsonArray(entries.size());
+        for (WhitelistManager.WhitelistEntry entry : entries) {
+            JsonObject item = new JsonObject();
+            item.addProperty("type", entry.getType());
+            item.addProperty("value", entry.getValue());
+            item.addProperty("is_active", true);
+            array.add(item);
+        }
+        JsonObject requestBody = new JsonObject();
+        requestBody.add("entries", array);
+        requestBody.addProperty("server_id", getEffectiveServerId());
+        return GSON.toJson(requestBody);
+    }
+
+    /**
+     * 与 {@link #writeEntriesJson} 结构相同的 CBOR 请求体。
+     */
+    private static byte[] writeEntriesCbor(Collection<WhitelistManager.WhitelistEntry> entries) {
+        Cbor.Writer writer = new Cbor.Writer(32 + entries.size() * 48);
+        writer.beginMap(2);
+        writer.name("entries").beginArray(entries.size());
+        for (WhitelistManager.WhitelistEntry entry : entries) {
+            writer.beginMap(3);
+            writer.name("type").value(entry.getType());
+            writer.name("value").value(entry.getValue());
+            writer.name("is_active").value(true);
+        }
+        writer.name("server_id").value(getEffectiveServerId());
+        return writer.toByteArray();
+    }
+
     public static CompletableFuture<Boolean> removeEntry(String type, String value) {
         if (!isEnabled()) {
             return CompletableFuture.completedFuture(false);
@@ -565,8 +1134,8 @@ public class ApiClient {
                         boolean success = json.get("success").getAsBoolean();
 
                         if (success) {
-                            // 清除缓存
-                            whitelistCache.remove("whitelist");
+                            // 使缓存失效，失败时仍可退回旧列表
+                            invalidateWhitelistCache();
                             LOGGER.info("Successfully removed entry via API: {}={}", type, value);
                         } else {
                             LOGGER.error("Failed to remove entry via API: {}",
@@ -590,34 +1159,43 @@ public class ApiClient {
             return;
         }
 
+        logLoginEvent(PlayerCompat.getPlayerNameSafe(player), PlayerCompat.getPlayerUuidSafe(player),
+                getPlayerIP(player), allowed, checkType);
+    }
+
+    /**
+     * 发送登录事件。用于尚未创建 ServerPlayer 的登录早期阶段。
+     */
+    public static void logLoginEvent(String playerName, String playerUuid, String playerIp,
+                                     boolean allowed, String checkType) {
+        if (!isEnabled() || !Config.API_LOG_LOGIN_EVENTS.get()) {
+            return;
+        }
+
         // 检查Token权限
         if (!hasValidToken() || !tokenInfo.isValidForWriting()) {
             LOGGER.warn("Token does not have write permission, skipping login event logging");
             return;
         }
 
-        queueRequest(() -> {
-            try {
-                Map<String, Object> requestBody = new HashMap<>();
-                requestBody.put("player_name", PlayerCompat.getPlayerNameSafe(player));
-                requestBody.put("player_uuid", PlayerCompat.getPlayerUuidSafe(player));
-                requestBody.put("player_ip", getPlayerIP(player));
-                requestBody.put("allowed", allowed);
-                requestBody.put("check_type", checkType != null ? checkType : "none");
-                requestBody.put("server_id", serverId != null && !serverId.isEmpty() ? serverId : "undefined");
-
-                String bodyJson = GSON.toJson(requestBody);
-
-                // 异步发送，不等待响应
-                sendRequest("/login/log", "POST", bodyJson, false)
-                        .exceptionally(e -> {
-                            LOGGER.warn("Failed to log login event to API", e);
-                            return null;
-                        });
-            } catch (Exception e) {
-                LOGGER.error("Error preparing login log request", e);
-            }
-        });
+        EventBatcher.enqueue(new EventBatcher.Event(true, playerName, playerUuid, playerIp,
+                allowed, checkType, System.currentTimeMillis()));
+    }
+
+    /**
+     * 发送一条合并后的拒绝摘要事件：同一来源（地址或网段）在一个统计窗口内被拒绝了 count 次。
+     */
+    public static void logDenialSummary(String playerName, String playerUuid, String source, int count) {
+        if (!isEnabled() || !Config.API_LOG_LOGIN_EVENTS.get()) {
+            return;
+        }
+
+        if (!hasValidToken() || !tokenInfo.isValidForWriting()) {
+            return;
+        }
+
+        EventBatcher.enqueue(new EventBatcher.Event(true, playerName, playerUuid, source,
+                false, "none", System.currentTimeMillis(), count));
     }
 
     public static void logLogoutEvent(ServerPlayer player) {
@@ -629,25 +1207,46 @@ public class ApiClient {
             return;
         }
 
-        queueRequest(() -> {
-            try {
-                Map<String, Object> requestBody = new HashMap<>();
-                requestBody.put("player_name", PlayerCompat.getPlayerNameSafe(player));
-                requestBody.put("player_uuid", PlayerCompat.getPlayerUuidSafe(player));
-                requestBody.put("player_ip", getPlayerIP(player));
-                requestBody.put("server_id", serverId != null && !serverId.isEmpty() ? serverId : "undefined");
-
-                String bodyJson = GSON.toJson(requestBody);
-
-                sendRequest("/login/logout", "POST", bodyJson, false)
-                        .exceptionally(e -> {
-                            LOGGER.warn("Failed to log logout event to API", e);
-                            return null;
-                        });
-            } catch (Exception e) {
-                LOGGER.error("Error preparing logout log request", e);
-            }
-        });
+        EventBatcher.enqueue(new EventBatcher.Event(false, PlayerCompat.getPlayerNameSafe(player),
+                PlayerCompat.getPlayerUuidSafe(player), getPlayerIP(player), false, null, System.currentTimeMillis()));
+    }
+
+    /**
+     * 通过请求队列发送一个已序列化的事件请求体，供 {@link EventBatcher} 使用。
+     */
+    static CompletableFuture<String> postEvents(String endpoint, String bodyJson) {
+        if (dispatcher == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("API client is not initialized"));
+        }
+        return dispatcher.submit(endpoint, "POST", bodyJson);
+    }
+
+    static CompletableFuture<String> postEvents(String endpoint, String contentType, byte[] body) {
+        if (dispatcher == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("API client is not initialized"));
+        }
+        return dispatcher.submit(endpoint, "POST", contentType, body);
+    }
+
+    /**
+     * 是否以 CBOR 发送请求体：已启用二进制格式、服务端用 CBOR 应答过，且没有以 415 拒绝过 CBOR 请求体。
+     */
+    static boolean useBinaryBodies() {
+        return Config.API_BINARY_WIRE_FORMAT.get() && binaryAccepted && !binaryBodiesRejected;
+    }
+
+    /**
+     * 服务端以 415 拒绝了 CBOR 请求体，此后请求体固定使用 JSON。
+     */
+    static void rejectBinaryBodies() {
+        if (!binaryBodiesRejected) {
+            binaryBodiesRejected = true;
+            LOGGER.warn("API rejected a CBOR request body (HTTP 415), sending JSON from now on");
+        }
+    }
+
+    static String getEffectiveServerId() {
+        return serverId != null && !serverId.isEmpty() ? serverId : "undefined";
     }
 
     private static String getPlayerIP(ServerPlayer player) {
@@ -661,129 +1260,487 @@ public class ApiClient {
         }
     }
 
-    private static void queueRequest(Runnable request) {
-        synchronized (requestQueue) {
-            requestQueue.add(request);
-        }
+    /**
+     * 读取成功（2xx 或条件请求的 304）响应体的回调，响应流已按 Content-Encoding 解压，在回调返回后关闭。
+     */
+    @FunctionalInterface
+    interface ResponseReader<T> {
+        T read(InputStream in, HttpResponse<?> response) throws IOException;
+    }
 
-        if (!isProcessingQueue) {
-            processQueue();
-        }
+    private static final ResponseReader<String> STRING_READER =
+            (in, response) -> new String(in.readAllBytes(), StandardCharsets.UTF_8);
+
+    private static CompletableFuture<String> sendRequest(String endpoint, String method, String body, boolean skipAuth) {
+        return sendRequest(endpoint, method, RequestDispatcher.CONTENT_TYPE_JSON,
+                body == null ? null : body.getBytes(StandardCharsets.UTF_8), skipAuth);
+    }
+
+    private static CompletableFuture<String> sendRequest(String endpoint, String method, String contentType, byte[] body,
+                                                         boolean skipAuth) {
+        return sendRequest(endpoint, method, contentType, body, skipAuth, STRING_READER, Map.of(),
+                Duration.ofSeconds(timeoutSeconds));
+    }
+
+    /**
+     * 新的整体截止时间（System.nanoTime 时间基准）。
+     */
+    private static long newDeadline() {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos(Config.API_REQUEST_DEADLINE_SECONDS.get());
+    }
+
+    /**
+     * 发送幂等的 GET 请求，带对冲与整体截止时间。
+     * <p>
+     * 每次尝试的超时不超过剩余时间；尝试因服务端或网络故障失败且剩余时间足够时，按带抖动的指数退避重试。
+     * 熔断器拒绝、认证失败等其他错误直接返回。截止时间同样限制响应体的读取：到期时中止连接并关闭响应体。
+     */
+    private static <T> CompletableFuture<T> sendIdempotent(String endpoint, Map<String, String> headers, boolean skipAuth,
+                                                           ResponseReader<T> reader, long deadlineNanos) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(endpoint, headers, skipAuth, reader, deadlineNanos, 1, result);
+        return result;
     }
 
-    private static void processQueue() {
-        synchronized (requestQueue) {
-            if (requestQueue.isEmpty()) {
-                isProcessingQueue = false;
+    private static <T> void attempt(String endpoint, Map<String, String> headers, boolean skipAuth,
+                                    ResponseReader<T> reader, long deadlineNanos, int attempt,
+                                    CompletableFuture<T> result) {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+            result.completeExceptionally(new HttpTimeoutException("Request deadline exceeded: " + metricKey(endpoint)));
+            return;
+        }
+        Duration timeout = Duration.ofNanos(Math.min(remainingNanos, TimeUnit.SECONDS.toNanos(timeoutSeconds)));
+
+        // HttpRequest.timeout 只限制等待响应头；到期后本次尝试失败，sendRequest 随之中止连接与响应体读取
+        CompletableFuture<T> call = sendHedged(endpoint, headers, skipAuth, reader, timeout)
+                .orTimeout(remainingNanos, TimeUnit.NANOSECONDS);
+        call.whenComplete((value, e) -> {
+            if (e == null) {
+                result.complete(value);
+                return;
+            }
+            if (e instanceof TimeoutException) {
+                result.completeExceptionally(new HttpTimeoutException("Request deadline exceeded: " + metricKey(endpoint)));
+                return;
+            }
+            long backoffMillis = RETRY_BASE_MILLIS << (attempt - 1);
+            backoffMillis = backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+            long leftMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (attempt >= MAX_ATTEMPTS || !isRetryable(e) || leftMillis <= backoffMillis) {
+                result.completeExceptionally(e);
                 return;
             }
+            Metrics.increment("api.retried." + metricKey(endpoint));
+            LOGGER.debug("Retrying {} in {}ms (attempt {} failed: {})",
+                    metricKey(endpoint), backoffMillis, attempt, e.getMessage());
+            CompletableFuture.delayedExecutor(backoffMillis, TimeUnit.MILLISECONDS, REQUEST_EXECUTOR)
+                    .execute(() -> attempt(endpoint, headers, skipAuth, reader, deadlineNanos, attempt + 1, result));
+        });
+    }
 
-            isProcessingQueue = true;
-            Runnable request = requestQueue.poll();
+    /**
+     * 发送 GET 请求；若在对冲延迟内没有返回，再发送一个相同的请求，采用先成功的结果。
+     * 只有所有已发出的请求都失败时才失败。一个请求成功后取消另一个：中止其连接，
+     * 尚未开始读取的响应体直接关闭，不再解析。
+     */
+    private static <T> CompletableFuture<T> sendHedged(String endpoint, Map<String, String> headers, boolean skipAuth,
+                                                       ResponseReader<T> reader, Duration timeout) {
+        CompletableFuture<T> primary = sendRequest(endpoint, "GET", null, null, skipAuth, reader, headers, timeout);
+        long delayMillis = hedgeDelayMillis(endpoint, headers);
+        CircuitBreaker breaker = circuitBreaker;
+        // API 已经异常时不再追加请求
+        if (!Config.API_HEDGE_REQUESTS.get() || delayMillis >= timeout.toMillis()
+                || (breaker != null && breaker.getState() != CircuitBreaker.State.CLOSED)) {
+            return primary;
+        }
 
-            CompletableFuture.runAsync(() -> {
-                try {
-                    request.run();
-                } finally {
-                    processQueue();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        AtomicReference<CompletableFuture<T>> hedge = new AtomicReference<>();
+        result.whenComplete((value, e) -> {
+            // 已完成的请求上调用 cancel 没有效果，只会取消仍在途的那一个
+            primary.cancel(true);
+            CompletableFuture<T> hedged = hedge.get();
+            if (hedged != null) {
+                hedged.cancel(true);
+            }
+        });
+        primary.whenComplete((value, e) -> {
+            if (e == null) {
+                result.complete(value);
+            } else if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        String path = metricKey(endpoint);
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, REQUEST_EXECUTOR).execute(() -> {
+            // 熔断器在等待期间打开过时不再对冲，否则对冲请求可能占用半开探测许可
+            if (breaker != null && breaker.getState() != CircuitBreaker.State.CLOSED) {
+                return;
+            }
+            // 首个请求已经返回（成功或失败）时不再对冲
+            int n;
+            do {
+                n = outstanding.get();
+                if (n == 0 || result.isDone()) {
+                    return;
+                }
+            } while (!outstanding.compareAndSet(n, n + 1));
+
+            Metrics.increment("api.hedged." + path);
+            LOGGER.debug("No response from {} after {}ms, sending hedged request", path, delayMillis);
+            CompletableFuture<T> hedged = sendRequest(endpoint, "GET", null, null, skipAuth, reader, headers,
+                    timeout.minusMillis(delayMillis));
+            hedge.set(hedged);
+            if (result.isDone()) {
+                hedged.cancel(true);
+            }
+            hedged.whenComplete((value, e) -> {
+                if (e == null) {
+                    if (result.complete(value)) {
+                        Metrics.increment("api.hedge_won." + path);
+                    }
+                } else if (outstanding.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
                 }
             });
-        }
+        });
+        return result;
     }
 
-    private static CompletableFuture<String> sendRequest(String endpoint, String method, String body, boolean skipAuth) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                String url = baseUrl + endpoint;
-                LOGGER.debug("Preparing API request to: {}", url);
-                LOGGER.debug("Method: {}, SkipAuth: {}", method, skipAuth);
-
-                // 构建请求URL（如果使用查询参数认证）
-                if (!skipAuth && !useHeaderAuth) {
-                    String separator = url.contains("?") ? "&" : "?";
-                    url = url + separator + "token=" + URLEncoder.encode(apiToken, java.nio.charset.StandardCharsets.UTF_8);
-                    LOGGER.debug("Using query parameter authentication");
-                }
+    /**
+     * 对冲延迟：该接口最近响应时间的配置分位数；样本不足时取超时的 1/4。
+     * 带校验值的条件请求通常以 304 结束，按 304 响应的耗时计算。
+     */
+    private static long hedgeDelayMillis(String endpoint, Map<String, String> headers) {
+        boolean conditional = headers.containsKey("If-None-Match") || headers.containsKey("If-Modified-Since");
+        Metrics.Histogram histogram = Metrics.histogram(
+                "api:" + metricKey(endpoint) + (conditional ? NOT_MODIFIED_SUFFIX : ""));
+        Metrics.Window window = histogram == null ? null : histogram.window(HEDGE_WINDOW_MILLIS);
+        long delayMillis = window == null || window.count() < HEDGE_MIN_SAMPLES
+                ? TimeUnit.SECONDS.toMillis(timeoutSeconds) / 4
+                : TimeUnit.NANOSECONDS.toMillis(window.percentileNanos(Config.API_HEDGE_PERCENTILE.get()));
+        return Math.max(Config.API_HEDGE_MIN_DELAY_MILLIS.get(), delayMillis);
+    }
 
-                HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-                        .uri(URI.create(url))
-                        .timeout(Duration.ofSeconds(timeoutSeconds))
-                        .header("Content-Type", "application/json")
-                        .header("User-Agent", "CWhitelist-Mod/1.0");
-
-                // 添加认证头（如果使用头部认证）
-                if (!skipAuth && useHeaderAuth) {
-                    String authHeader = "Bearer " + apiToken;
-                    requestBuilder.header("Authorization", authHeader);
-                    LOGGER.debug("Adding Authorization header: Bearer {}",
-                            apiToken.substring(0, Math.min(8, apiToken.length())) + "...");
-                } else if (skipAuth) {
-                    LOGGER.debug("Skipping authentication (health check)");
-                }
+    /**
+     * 是否值得重试：服务端或网络故障才重试，熔断器拒绝说明短时间内重试也不会成功。
+     */
+    private static boolean isRetryable(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CircuitBreaker.OpenException) {
+                return false;
+            }
+        }
+        return isServerFailure(e);
+    }
 
-                // 设置方法和请求体
-                switch (method.toUpperCase()) {
-                    case "GET":
-                        requestBuilder.GET();
-                        break;
-                    case "POST":
-                        requestBuilder.POST(body == null ?
-                                HttpRequest.BodyPublishers.noBody() :
-                                HttpRequest.BodyPublishers.ofString(body));
-                        LOGGER.debug("Request body: {}", body);
-                        break;
-                    case "DELETE":
-                        requestBuilder.DELETE();
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Unsupported method: " + method);
-                }
+    /**
+     * 去掉查询参数的接口路径，用作指标名称。
+     */
+    private static String endpointPath(String endpoint) {
+        int query = endpoint.indexOf('?');
+        return query >= 0 ? endpoint.substring(0, query) : endpoint;
+    }
 
-                HttpRequest request = requestBuilder.build();
-                LOGGER.debug("Sending HTTP request...");
+    /**
+     * 指标名称中的接口部分。增量同步与全量同步走同一个路径，但响应大小相差很大，
+     * 分开记录，避免互相影响对冲延迟；304 响应另加 {@link #NOT_MODIFIED_SUFFIX}。
+     * 路径中的参数（被删除条目的类型与值）替换为模板，指标名称的数量保持固定。
+     */
+    static String metricKey(String endpoint) {
+        String path = endpointPath(endpoint);
+        if (path.startsWith(ENTRY_PATH_PREFIX) && !path.equals(BULK_PATH)) {
+            return ENTRY_PATH_TEMPLATE;
+        }
+        int query = endpoint.indexOf('?');
+        if (query >= 0 && (endpoint.indexOf("?since=", query) >= 0 || endpoint.indexOf("&since=", query) >= 0)) {
+            return path + DELTA_SUFFIX;
+        }
+        return path;
+    }
 
-                HttpResponse<String> response = httpClient.send(request,
-                        HttpResponse.BodyHandlers.ofString());
+    private static <T> CompletableFuture<T> sendRequest(String endpoint, String method, String contentType, byte[] body,
+                                                        boolean skipAuth, ResponseReader<T> reader,
+                                                        Map<String, String> headers, Duration timeout) {
+        HttpRequest request;
+        try {
+            request = buildRequest(endpoint, method, contentType, body, skipAuth, headers, timeout);
+        } catch (Exception e) {
+            LOGGER.error("API request failed with exception: {}", e.getMessage());
+            return CompletableFuture.failedFuture(new RuntimeException("API request failed: " + e.getMessage(), e));
+        }
 
-                LOGGER.debug("Response status: {}", response.statusCode());
-                LOGGER.debug("Response body: {}", response.body());
+        String metricName = "api:" + metricKey(endpoint);
 
-                // 处理响应
-                if (response.statusCode() == 401 || response.statusCode() == 403) {
-                    // Token认证失败，标记为未验证
-                    isTokenVerified.set(false);
-                    LOGGER.error("Authentication failed: HTTP {} - {}",
-                            response.statusCode(), response.body());
+        // 熔断器打开时立即失败，不再等待超时
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && !breaker.tryAcquire()) {
+            Metrics.increment("api.rejected." + metricName.substring(4));
+            return CompletableFuture.failedFuture(new CircuitBreaker.OpenException(breaker.getRetryDelayMillis()));
+        }
 
-                    // 尝试解析错误信息
+        LOGGER.debug("Sending HTTP request...");
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicBoolean notModified = new AtomicBoolean();
+        AtomicBoolean settled = new AtomicBoolean();
+        AtomicReference<InputStream> responseBody = new AtomicReference<>();
+        // 发送与等待响应头都不占用线程；响应体在虚拟线程上读取，慢速 API 不会占满平台线程
+        CompletableFuture<HttpResponse<InputStream>> exchange =
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        // 调用方提前结束请求（对冲中落后的请求被取消、截止时间已到）时中止连接；
+        // 响应头已到时关闭响应体，正在阻塞读取的线程随之抛出异常
+        result.whenComplete((value, e) -> {
+            if (!settled.get()) {
+                exchange.cancel(true);
+                closeQuietly(responseBody.get());
+            }
+        });
+        exchange
+                .thenApplyAsync(response -> {
+                    responseBody.set(response.body());
+                    if (result.isDone()) {
+                        // 响应头已到但请求已被提前结束：关闭响应体，不再读取和解析
+                        closeQuietly(response.body());
+                        throw new CancellationException();
+                    }
+                    notModified.set(response.statusCode() == 304);
                     try {
-                        JsonObject json = JsonParser.parseString(response.body()).getAsJsonObject();
-                        String message = json.get("message").getAsString();
-                        LOGGER.error("API Error: {}", message);
+                        return handleResponse(response, reader);
                     } catch (Exception e) {
-                        LOGGER.error("Could not parse error response");
+                        LOGGER.error("API request failed with exception: {}", e.getMessage());
+                        throw new RuntimeException("API request failed: " + e.getMessage(), e);
+                    }
+                }, REQUEST_EXECUTOR)
+                .whenComplete((value, e) -> {
+                    // 被调用方提前结束的请求不完整，不计入耗时与熔断统计，但要归还可能占用的半开探测许可
+                    if (result.isDone()) {
+                        if (breaker != null) {
+                            breaker.onCancelled();
+                        }
+                        return;
+                    }
+                    long elapsed = System.nanoTime() - startNanos;
+                    Metrics.recordNanos(notModified.get() ? metricName + NOT_MODIFIED_SUFFIX : metricName, elapsed);
+                    if (e != null) {
+                        Metrics.increment("api.failed." + metricName.substring(4));
+                    }
+                    if (breaker != null) {
+                        if (e == null || !isServerFailure(e)) {
+                            breaker.onSuccess(elapsed);
+                        } else {
+                            breaker.onFailure(elapsed);
+                        }
+                    }
+                    // 连接失败、超时等传输层错误；响应处理中的错误已在上面记录
+                    if (e != null && !(e.getCause() instanceof RuntimeException)) {
+                        LOGGER.error("API request failed with exception: {}", e.getMessage());
+                    }
+                    settled.set(true);
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(value);
                     }
+                });
+        return result;
+    }
 
-                    throw new IOException("Authentication failed: " + response.statusCode());
-                }
+    /**
+     * 是否应计入熔断器的失败：传输层错误、超时、5xx 与 429；其余 4xx 说明服务端正常响应。
+     */
+    private static boolean isServerFailure(Throwable e) {
+        int status = findApiStatus(e);
+        return status < 0 || status >= 500 || status == 429;
+    }
 
-                if (response.statusCode() >= 200 && response.statusCode() < 300) {
-                    return response.body();
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static HttpRequest buildRequest(String endpoint, String method, String contentType, byte[] body,
+                                            boolean skipAuth, Map<String, String> headers, Duration timeout) {
+        String url = baseUrl + endpoint;
+        LOGGER.debug("Preparing API request to: {}", url);
+        LOGGER.debug("Method: {}, SkipAuth: {}", method, skipAuth);
+
+        // 构建请求URL（如果使用查询参数认证）
+        if (!skipAuth && !useHeaderAuth) {
+            String separator = url.contains("?") ? "&" : "?";
+            url = url + separator + "token=" + URLEncoder.encode(apiToken, java.nio.charset.StandardCharsets.UTF_8);
+            LOGGER.debug("Using query parameter authentication");
+        }
+
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .header("Content-Type", contentType != null ? contentType : RequestDispatcher.CONTENT_TYPE_JSON)
+                .header("User-Agent", "CWhitelist-Mod/1.0")
+                .header("Accept-Encoding", "gzip, deflate");
+        if (!headers.containsKey("Accept")) {
+            // 只有同步请求能读取 CBOR 响应，其他请求明确要求 JSON
+            requestBuilder.header("Accept", RequestDispatcher.CONTENT_TYPE_JSON);
+        }
+        headers.forEach(requestBuilder::header);
+
+        // 添加认证头（如果使用头部认证）
+        if (!skipAuth && useHeaderAuth) {
+            String authHeader = "Bearer " + apiToken;
+            requestBuilder.header("Authorization", authHeader);
+            LOGGER.debug("Adding Authorization header: Bearer {}",
+                    apiToken.substring(0, Math.min(8, apiToken.length())) + "...");
+        } else if (skipAuth) {
+            LOGGER.debug("Skipping authentication (health check)");
+        }
+
+        // 设置方法和请求体
+        switch (method.toUpperCase()) {
+            case "GET":
+                requestBuilder.GET();
+                break;
+            case "POST":
+                requestBuilder.POST(body == null ?
+                        HttpRequest.BodyPublishers.noBody() :
+                        HttpRequest.BodyPublishers.ofByteArray(body));
+                if (body != null && Cbor.isCbor(contentType)) {
+                    LOGGER.debug("Request body: {} bytes of CBOR", body.length);
                 } else {
-                    LOGGER.error("API request failed with status: {}", response.statusCode());
-                    throw new IOException(String.format("API request failed: %d %s",
-                            response.statusCode(), response.body()));
+                    LOGGER.debug("Request body: {}", body == null ? null : new String(body, StandardCharsets.UTF_8));
+                }
+                break;
+            case "DELETE":
+                requestBuilder.DELETE();
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported method: " + method);
+        }
+
+        return requestBuilder.build();
+    }
+
+    private static <T> T handleResponse(HttpResponse<InputStream> response, ResponseReader<T> reader) throws IOException {
+        LOGGER.debug("Response status: {}", response.statusCode());
+
+        try (InputStream in = decode(response)) {
+            // 处理响应
+            if (response.statusCode() == 401 || response.statusCode() == 403) {
+                String errorBody = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                // Token认证失败，标记为未验证
+                isTokenVerified.set(false);
+                LOGGER.error("Authentication failed: HTTP {} - {}",
+                        response.statusCode(), errorBody);
+
+                // 尝试解析错误信息
+                try {
+                    JsonObject json = JsonParser.parseString(errorBody).getAsJsonObject();
+                    String message = json.get("message").getAsString();
+                    LOGGER.error("API Error: {}", message);
+                } catch (Exception e) {
+                    LOGGER.error("Could not parse error response");
                 }
-            } catch (Exception e) {
-                LOGGER.error("API request failed with exception: {}", e.getMessage());
-                throw new RuntimeException("API request failed: " + e.getMessage(), e);
+
+                throw new ApiException(response.statusCode(), "Authentication failed: " + response.statusCode());
             }
-        });
+
+            if (response.statusCode() >= 200 && response.statusCode() < 300 || response.statusCode() == 304) {
+                return reader.read(in, response);
+            } else {
+                String errorBody = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                LOGGER.error("API request failed with status: {}", response.statusCode());
+                throw new ApiException(response.statusCode(), String.format("API request failed: %d %s",
+                        response.statusCode(), errorBody));
+            }
+        }
+    }
+
+    /**
+     * 按 Content-Encoding 包装响应流，边读边解压，不在内存中保留完整的压缩或解压后数据。
+     * deflate 按规范应带 zlib 头，但也兼容部分服务端发送的裸 deflate 数据。
+     */
+    private static InputStream decode(HttpResponse<InputStream> response) throws IOException {
+        InputStream raw = response.body();
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity")
+                .trim().toLowerCase(Locale.ROOT);
+        if (!encoding.equals("gzip") && !encoding.equals("x-gzip") && !encoding.equals("deflate")) {
+            return raw;
+        }
+
+        try {
+            // 304 等响应没有响应体，解压流在构造时就会读取头部，需先确认有数据
+            PushbackInputStream in = new PushbackInputStream(raw, 2);
+            int b0 = in.read();
+            if (b0 < 0) {
+                return in;
+            }
+            int b1 = in.read();
+            if (b1 >= 0) {
+                in.unread(b1);
+            }
+            in.unread(b0);
+
+            if (!encoding.equals("deflate")) {
+                return new GZIPInputStream(in, 8192);
+            }
+            boolean zlib = b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+            Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(in, inflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 服务器关闭时停止请求分发，需在 {@link EventBatcher#stop()} 之后调用。
+     */
+    public static void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    /**
+     * 最近一次心跳是否成功；未启用 API 时为 true。
+     */
+    public static boolean isHeartbeatHealthy() {
+        return heartbeatHealthy;
+    }
+
+    public static CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public static RequestDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * 写操作或增量同步之后调用：下次读取必须向 API 请求，但旧列表仍保留为失败时的后备。
+     */
+    private static void invalidateWhitelistCache() {
+        whitelistCache.computeIfPresent("whitelist", (key, entry) -> entry.invalidate());
     }
 
     public static void clearCache() {
         whitelistCache.clear();
         lastSyncTime = Instant.MIN;
+        syncCursor = null;
+        // 校验值引用的列表也随缓存一起丢弃，下次同步必须取回完整响应
+        syncValidator = null;
         LOGGER.info("API cache cleared");
     }
 
@@ -0,0 +1,154 @@
+package org.skydream.cwhitelist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 白名单的二进制快照，与 JSON 文件并存，用于加快启动加载。
+ * <p>
+ * 这只是一个二进制缓存：读取时一次性读入堆内存并解码为条目列表，省去 JSON 解析与反射，
+ * 索引仍由调用方照常构建。不使用内存映射，读取结束后不持有文件，写入时可以直接替换。
+ * <p>
+ * 文件布局（大端）：
+ * <pre>
+ * int    magic ("CWLB")
+ * short  格式版本
+ * long   对应 JSON 文件的大小
+ * long   对应 JSON 文件的修改时间（毫秒）
+ * int    条目数
+ * 条目 * n：byte 类型码，[类型码为 0 时跟一个自定义类型字符串]，值字符串
+ * </pre>
+ * 字符串以 unsigned short 长度前缀加 UTF-8 字节存储。
+ * JSON 文件仍是可手动编辑的数据源，大小或修改时间与记录不符时快照视为过期。
+ */
+public final class BinarySnapshot {
+    private static final int MAGIC = 0x43574C42;
+    private static final short FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8 + 8 + 4;
+
+    private static final byte TYPE_OTHER = 0;
+    private static final byte TYPE_NAME = 1;
+    private static final byte TYPE_UUID = 2;
+    private static final byte TYPE_IP = 3;
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * 读取并解码快照；文件不存在、格式不符或与 JSON 文件指纹不一致时返回 null。
+     */
+    public static List<WhitelistManager.WhitelistEntry> read(Path snapshotPath, Path jsonPath) throws IOException {
+        if (!Files.exists(snapshotPath) || !Files.exists(jsonPath)) {
+            return null;
+        }
+
+        long jsonSize = Files.size(jsonPath);
+        long jsonModified = Files.getLastModifiedTime(jsonPath).toMillis();
+
+        long size = Files.size(snapshotPath);
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE - 8) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getShort() != FORMAT_VERSION) {
+                return null;
+            }
+            if (buffer.getLong() != jsonSize || buffer.getLong() != jsonModified) {
+                return null;
+            }
+
+            int count = buffer.getInt();
+            if (count < 0) {
+                return null;
+            }
+
+            // 每个条目至少占 3 字节，用于防止损坏的计数导致过大的预分配
+            List<WhitelistManager.WhitelistEntry> entries = new ArrayList<>(Math.min(count, buffer.remaining() / 3));
+            for (int i = 0; i < count; i++) {
+                byte code = buffer.get();
+                String type = switch (code) {
+                    case TYPE_NAME -> "name";
+                    case TYPE_UUID -> "uuid";
+                    case TYPE_IP -> "ip";
+                    default -> readString(buffer);
+                };
+                entries.add(new WhitelistManager.WhitelistEntry(type, readString(buffer)));
+            }
+            return entries;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 写入快照。先写临时文件再原子替换，避免读到写了一半的文件。
+     */
+    public static void write(Path snapshotPath, Path jsonPath, Collection<WhitelistManager.WhitelistEntry> entries)
+            throws IOException {
+        long jsonSize = Files.size(jsonPath);
+        long jsonModified = Files.getLastModifiedTime(jsonPath).toMillis();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + entries.size() * 24);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeLong(jsonSize);
+            out.writeLong(jsonModified);
+            out.writeInt(entries.size());
+
+            for (WhitelistManager.WhitelistEntry entry : entries) {
+                String type = entry.getType();
+                byte code = switch (type == null ? "" : type) {
+                    case "name" -> TYPE_NAME;
+                    case "uuid" -> TYPE_UUID;
+                    case "ip" -> TYPE_IP;
+                    default -> TYPE_OTHER;
+                };
+                out.writeByte(code);
+                if (code == TYPE_OTHER) {
+                    writeString(out, type);
+                }
+                writeString(out, entry.getValue());
+            }
+        }
+
+        Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        Files.write(tempPath, bytes.toByteArray());
+        Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        if (length == 0xFFFF) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(0xFFFF);
+            return;
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        if (data.length >= 0xFFFF) {
+            throw new IOException("Whitelist value too long for binary snapshot: " + data.length + " bytes");
+        }
+        out.writeShort(data.length);
+        out.write(data);
+    }
+}
@@ -0,0 +1,436 @@
+package org.skydream.cwhitelist;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 手写的最小 CBOR（RFC 8949）编解码器，用于与 API 之间的二进制载荷。
+ * <p>
+ * 只写出载荷用到的类型：映射、数组、文本串、整数、布尔值与 null。
+ * 读取接口仿照 Gson 的 JsonReader（beginMap/hasNext/nextString/skipValue），
+ * 支持定长与不定长容器，可跳过字节串、标签、浮点数等任意其他数据项。
+ */
+final class Cbor {
+    static final String CONTENT_TYPE = "application/cbor";
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int UNDEFINED = 0xF7;
+    private static final int BREAK = 0xFF;
+
+    // 单个字符串的长度上限，防止异常的长度字段导致一次性分配过大的数组
+    private static final long MAX_STRING_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_DEPTH = 64;
+
+    private Cbor() {
+    }
+
+    static boolean isCbor(String contentType) {
+        return contentType != null && contentType.regionMatches(true, 0, CONTENT_TYPE, 0, CONTENT_TYPE.length());
+    }
+
+    /**
+     * 写入定长 CBOR 数据项，调用方负责给出正确的容器大小。
+     */
+    static final class Writer {
+        private byte[] buf;
+        private int len;
+
+        Writer(int initialCapacity) {
+            buf = new byte[Math.max(16, initialCapacity)];
+        }
+
+        Writer beginMap(int size) {
+            head(MAJOR_MAP, size);
+            return this;
+        }
+
+        Writer beginArray(int size) {
+            head(MAJOR_ARRAY, size);
+            return this;
+        }
+
+        Writer name(String name) {
+            return value(name);
+        }
+
+        Writer value(String value) {
+            if (value == null) {
+                return nullValue();
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            head(MAJOR_TEXT, bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+            return this;
+        }
+
+        Writer value(long value) {
+            if (value >= 0) {
+                head(MAJOR_UNSIGNED, value);
+            } else {
+                head(MAJOR_NEGATIVE, -1 - value);
+            }
+            return this;
+        }
+
+        Writer value(boolean value) {
+            ensure(1);
+            buf[len++] = (byte) (value ? TRUE : FALSE);
+            return this;
+        }
+
+        Writer nullValue() {
+            ensure(1);
+            buf[len++] = (byte) NULL;
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+
+        private void head(int major, long argument) {
+            ensure(9);
+            int type = major << 5;
+            if (argument < 24) {
+                buf[len++] = (byte) (type | argument);
+            } else if (argument <= 0xFF) {
+                buf[len++] = (byte) (type | 24);
+                buf[len++] = (byte) argument;
+            } else if (argument <= 0xFFFF) {
+                buf[len++] = (byte) (type | 25);
+                buf[len++] = (byte) (argument >>> 8);
+                buf[len++] = (byte) argument;
+            } else if (argument <= 0xFFFFFFFFL) {
+                buf[len++] = (byte) (type | 26);
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    buf[len++] = (byte) (argument >>> shift);
+                }
+            } else {
+                buf[len++] = (byte) (type | 27);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    buf[len++] = (byte) (argument >>> shift);
+                }
+            }
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+    }
+
+    /**
+     * 以流式方式读取 CBOR 数据项，自带缓冲区，不需要外层 BufferedInputStream。
+     */
+    static final class Reader {
+        private final InputStream in;
+        private final byte[] buf = new byte[8192];
+        private int pos;
+        private int limit;
+
+        // 每层容器剩余的数据项数，-1 表示不定长容器（以 BREAK 结束）
+        private final long[] remaining = new long[MAX_DEPTH];
+        private int depth = 0;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        void beginMap() throws IOException {
+            long size = readHead(MAJOR_MAP, true);
+            push(size < 0 ? -1 : size * 2);
+        }
+
+        void endMap() throws IOException {
+            endContainer();
+        }
+
+        void beginArray() throws IOException {
+            push(readHead(MAJOR_ARRAY, true));
+        }
+
+        void endArray() throws IOException {
+            endContainer();
+        }
+
+        /**
+         * 当前容器中是否还有数据项。
+         */
+        boolean hasNext() throws IOException {
+            if (depth == 0) {
+                return true;
+            }
+            long left = remaining[depth - 1];
+            return left < 0 ? peek() != BREAK : left > 0;
+        }
+
+        boolean peekNull() throws IOException {
+            int b = peek();
+            return b == NULL || b == UNDEFINED;
+        }
+
+        void nextNull() throws IOException {
+            if (!peekNull()) {
+                throw new IOException("Expected CBOR null");
+            }
+            consumeItem();
+            read();
+        }
+
+        boolean nextBoolean() throws IOException {
+            int b = peek();
+            if (b != TRUE && b != FALSE) {
+                throw new IOException("Expected CBOR boolean, got initial byte 0x" + Integer.toHexString(b));
+            }
+            consumeItem();
+            read();
+            return b == TRUE;
+        }
+
+        long nextLong() throws IOException {
+            int major = peek() >>> 5;
+            if (major != MAJOR_UNSIGNED && major != MAJOR_NEGATIVE) {
+                throw new IOException("Expected CBOR integer, got major type " + major);
+            }
+            consumeItem();
+            long argument = readArgument(read(), false);
+            return major == MAJOR_UNSIGNED ? argument : -1 - argument;
+        }
+
+        /**
+         * 读取文本串；与 JsonReader.nextString 一样也接受整数并转为字符串。
+         */
+        String nextString() throws IOException {
+            int major = peek() >>> 5;
+            if (major == MAJOR_UNSIGNED || major == MAJOR_NEGATIVE) {
+                return Long.toString(nextLong());
+            }
+            if (major != MAJOR_TEXT) {
+                throw new IOException("Expected CBOR text string, got major type " + major);
+            }
+            consumeItem();
+            long length = readArgument(read(), true);
+            if (length >= 0) {
+                return new String(readBytes(length), StandardCharsets.UTF_8);
+            }
+            // 不定长文本串由若干定长分段组成
+            StringBuilder sb = new StringBuilder();
+            while (peek() != BREAK) {
+                int chunk = read();
+                if (chunk >>> 5 != MAJOR_TEXT) {
+                    throw new IOException("Malformed indefinite-length CBOR text string");
+                }
+                sb.append(new String(readBytes(readArgument(chunk, false)), StandardCharsets.UTF_8));
+            }
+            read();
+            return sb.toString();
+        }
+
+        String nextName() throws IOException {
+            return nextString();
+        }
+
+        /**
+         * 跳过下一个完整的数据项（包括嵌套的容器）。
+         */
+        void skipValue() throws IOException {
+            consumeItem();
+            skipItem(0);
+        }
+
+        private void skipItem(int nesting) throws IOException {
+            if (nesting > MAX_DEPTH) {
+                throw new IOException("CBOR nesting too deep");
+            }
+            int initial = read();
+            int major = initial >>> 5;
+            switch (major) {
+                case MAJOR_UNSIGNED, MAJOR_NEGATIVE -> readArgument(initial, false);
+                case MAJOR_BYTES, MAJOR_TEXT -> {
+                    long length = readArgument(initial, true);
+                    if (length >= 0) {
+                        skipBytes(length);
+                    } else {
+                        while (peek() != BREAK) {
+                            skipItem(nesting + 1);
+                        }
+                        read();
+                    }
+                }
+                case MAJOR_ARRAY, MAJOR_MAP -> {
+                    long count = readArgument(initial, true);
+                    if (count >= 0) {
+                        long items = major == MAJOR_MAP ? count * 2 : count;
+                        for (long i = 0; i < items; i++) {
+                            skipItem(nesting + 1);
+                        }
+                    } else {
+                        while (peek() != BREAK) {
+                            skipItem(nesting + 1);
+                        }
+                        read();
+                    }
+                }
+                case MAJOR_TAG -> {
+                    readArgument(initial, false);
+                    skipItem(nesting + 1);
+                }
+                default -> {
+                    // 简单值与浮点数：附加信息 24-27 之后跟 1/2/4/8 字节
+                    int info = initial & 0x1F;
+                    if (info == 31) {
+                        throw new IOException("Unexpected CBOR break");
+                    }
+                    readArgument(initial, false);
+                }
+            }
+        }
+
+        private void push(long count) throws IOException {
+            if (depth == MAX_DEPTH) {
+                throw new IOException("CBOR nesting too deep");
+            }
+            remaining[depth++] = count;
+        }
+
+        private void endContainer() throws IOException {
+            if (depth == 0) {
+                throw new IOException("No CBOR container to end");
+            }
+            long left = remaining[depth - 1];
+            if (left < 0) {
+                if (read() != BREAK) {
+                    throw new IOException("Expected CBOR break");
+                }
+            } else if (left > 0) {
+                throw new IOException("CBOR container has " + left + " unread items");
+            }
+            depth--;
+        }
+
+        /**
+         * 当前容器的剩余数据项减一，在读取每个数据项之前调用。
+         */
+        private void consumeItem() throws IOException {
+            if (depth == 0) {
+                return;
+            }
+            long left = remaining[depth - 1];
+            if (left == 0) {
+                throw new IOException("Read past the end of a CBOR container");
+            }
+            if (left > 0) {
+                remaining[depth - 1] = left - 1;
+            }
+        }
+
+        private long readHead(int expectedMajor, boolean allowIndefinite) throws IOException {
+            int initial = peek();
+            if (initial >>> 5 != expectedMajor) {
+                throw new IOException("Expected CBOR major type " + expectedMajor + ", got " + (initial >>> 5));
+            }
+            consumeItem();
+            return readArgument(read(), allowIndefinite);
+        }
+
+        /**
+         * 解析初始字节之后的参数，不定长时返回 -1。
+         */
+        private long readArgument(int initial, boolean allowIndefinite) throws IOException {
+            int info = initial & 0x1F;
+            if (info < 24) {
+                return info;
+            }
+            int bytes = switch (info) {
+                case 24 -> 1;
+                case 25 -> 2;
+                case 26 -> 4;
+                case 27 -> 8;
+                case 31 -> {
+                    if (!allowIndefinite) {
+                        throw new IOException("Unexpected indefinite-length CBOR item");
+                    }
+                    yield 0;
+                }
+                default -> throw new IOException("Reserved CBOR additional info " + info);
+            };
+            if (bytes == 0) {
+                return -1;
+            }
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | read();
+            }
+            return value;
+        }
+
+        private byte[] readBytes(long length) throws IOException {
+            if (length < 0 || length > MAX_STRING_BYTES) {
+                throw new IOException("CBOR string too long: " + length);
+            }
+            byte[] out = new byte[(int) length];
+            int off = 0;
+            while (off < out.length) {
+                if (pos == limit && !fill()) {
+                    throw new EOFException("Truncated CBOR string");
+                }
+                int n = Math.min(limit - pos, out.length - off);
+                System.arraycopy(buf, pos, out, off, n);
+                pos += n;
+                off += n;
+            }
+            return out;
+        }
+
+        private void skipBytes(long length) throws IOException {
+            while (length > 0) {
+                if (pos == limit && !fill()) {
+                    throw new EOFException("Truncated CBOR data");
+                }
+                int n = (int) Math.min(limit - pos, length);
+                pos += n;
+                length -= n;
+            }
+        }
+
+        private int peek() throws IOException {
+            if (pos == limit && !fill()) {
+                throw new EOFException("Unexpected end of CBOR data");
+            }
+            return buf[pos] & 0xFF;
+        }
+
+        private int read() throws IOException {
+            int b = peek();
+            pos++;
+            return b;
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buf, 0, buf.length);
+            if (n <= 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+    }
+}
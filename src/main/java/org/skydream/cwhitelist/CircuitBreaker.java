@@ -0,0 +1,224 @@
+package org.skydream.cwhitelist;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * API 请求的熔断器。
+ * <p>
+ * 关闭状态下统计最近 windowSize 次调用，失败率或慢调用率达到阈值后打开；
+ * 打开期间所有调用立即失败，不再等待超时。打开时长按指数退避（带随机抖动）增长，
+ * 到期后进入半开状态，只放行一个探测请求：成功则关闭并重置退避，失败则以更长的时长重新打开。
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * 熔断器打开时请求被拒绝。
+     */
+    public static class OpenException extends IOException {
+        public final long retryAfterMillis;
+
+        public OpenException(long retryAfterMillis) {
+            super("API circuit breaker is open, retry in " + retryAfterMillis + "ms");
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+
+    // 以下字段由 this 保护
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int recorded;
+    private int next;
+    private State state = State.CLOSED;
+    private long openUntilMillis;
+    private int consecutiveOpens;
+    private boolean probeInFlight;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreaker(int windowSize, int failureRateThreshold, int slowCallRateThreshold,
+                          long slowCallMillis, long baseOpenMillis, long maxOpenMillis) {
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.max(1, windowSize / 2);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.baseOpenMillis = baseOpenMillis;
+        this.maxOpenMillis = Math.max(baseOpenMillis, maxOpenMillis);
+        this.failures = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+    }
+
+    /**
+     * 申请一次调用许可。返回 true 时调用方必须在调用结束后调用 {@link #onSuccess}、{@link #onFailure}
+     * 或（请求被取消时）{@link #onCancelled}。
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED -> {
+                return true;
+            }
+            case OPEN -> {
+                if (System.currentTimeMillis() < openUntilMillis) {
+                    rejected.increment();
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                LOGGER.info("API circuit breaker half-open, sending a probe request");
+                return true;
+            }
+            default -> {
+                if (probeInFlight) {
+                    rejected.increment();
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 是否会放行请求，不占用许可。用于请求分发器在熔断期间暂停出队。
+     */
+    public synchronized boolean isCallPermitted() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> System.currentTimeMillis() >= openUntilMillis;
+            case HALF_OPEN -> !probeInFlight;
+        };
+    }
+
+    public synchronized void onSuccess(long durationNanos) {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+            if (durationNanos >= slowCallNanos) {
+                reopen();
+                return;
+            }
+            LOGGER.info("✅ API circuit breaker closed after a successful probe");
+            state = State.CLOSED;
+            consecutiveOpens = 0;
+            resetWindow();
+            return;
+        }
+        record(false, durationNanos >= slowCallNanos);
+    }
+
+    public synchronized void onFailure(long durationNanos) {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+            reopen();
+            return;
+        }
+        record(true, durationNanos >= slowCallNanos);
+    }
+
+    /**
+     * 请求在完成前被调用方取消（例如对冲中落后的请求），结果不计入统计。
+     * 半开状态下释放探测许可但不改变状态，下一个请求继续作为探测。
+     */
+    public synchronized void onCancelled() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    private void record(boolean failure, boolean slow) {
+        if (state != State.CLOSED) {
+            // 打开前已发出的请求陆续返回，不再影响统计
+            return;
+        }
+        failures[next] = failure;
+        slowCalls[next] = slow;
+        next = (next + 1) % windowSize;
+        if (recorded < windowSize) {
+            recorded++;
+        }
+        if (recorded < minimumCalls) {
+            return;
+        }
+
+        int failureCount = 0;
+        int slowCount = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (failures[i]) {
+                failureCount++;
+            }
+            if (slowCalls[i]) {
+                slowCount++;
+            }
+        }
+        int failureRate = failureCount * 100 / recorded;
+        int slowRate = slowCount * 100 / recorded;
+        if (failureRate >= failureRateThreshold || slowRate >= slowCallRateThreshold) {
+            LOGGER.warn("⚠ API circuit breaker opened (failure rate {}%, slow call rate {}% over {} calls)",
+                    failureRate, slowRate, recorded);
+            open();
+        }
+    }
+
+    private void reopen() {
+        LOGGER.warn("⚠ API circuit breaker probe failed, staying open");
+        open();
+    }
+
+    /**
+     * 按指数退避计算打开时长，取其一半为固定部分、另一半随机，避免多台服务器同时探测。
+     */
+    private void open() {
+        long backoff = baseOpenMillis << Math.min(consecutiveOpens, 20);
+        backoff = Math.min(maxOpenMillis, backoff);
+        long duration = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        consecutiveOpens++;
+
+        state = State.OPEN;
+        openUntilMillis = System.currentTimeMillis() + duration;
+        resetWindow();
+        LOGGER.info("API requests will fail fast for the next {}ms", duration);
+    }
+
+    private void resetWindow() {
+        recorded = 0;
+        next = 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 距离下一次允许探测的毫秒数；未打开时为 0。
+     */
+    public synchronized long getRetryDelayMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openUntilMillis - System.currentTimeMillis());
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -10,11 +10,24 @@ public class Config {
     public static final ModConfigSpec.BooleanValue ENABLE_LOGGING;
     public static final ModConfigSpec.IntValue LOG_RETENTION_DAYS;
     public static final ModConfigSpec.IntValue LOG_CUT_SIZE_MB;
+    public static final ModConfigSpec.BooleanValue BINARY_SNAPSHOT;
+    public static final ModConfigSpec.EnumValue<WhitelistJournal.FsyncPolicy> JOURNAL_FSYNC;
+    public static final ModConfigSpec.IntValue JOURNAL_COMPACT_THRESHOLD;
+    public static final ModConfigSpec.BooleanValue WARM_START;
 
     // 检查配置
     public static final ModConfigSpec.BooleanValue ENABLE_NAME_CHECK;
     public static final ModConfigSpec.BooleanValue ENABLE_UUID_CHECK;
     public static final ModConfigSpec.BooleanValue ENABLE_IP_CHECK;
+    public static final ModConfigSpec.BooleanValue EARLY_REJECTION;
+    public static final ModConfigSpec.BooleanValue IP_PREFILTER;
+    public static final ModConfigSpec.IntValue DECISION_CACHE_SIZE;
+    public static final ModConfigSpec.BooleanValue LOGIN_THROTTLE;
+    public static final ModConfigSpec.IntValue THROTTLE_DENIALS_PER_MINUTE;
+    public static final ModConfigSpec.IntValue THROTTLE_BURST;
+    public static final ModConfigSpec.IntValue THROTTLE_IPV4_PREFIX;
+    public static final ModConfigSpec.IntValue THROTTLE_IPV6_PREFIX;
+    public static final ModConfigSpec.IntValue DENY_SUMMARY_THRESHOLD;
 
     // API配置
     public static final ModConfigSpec.BooleanValue ENABLE_API;
@@ -23,10 +36,36 @@ public class Config {
     public static final ModConfigSpec.BooleanValue API_USE_HEADER_AUTH;
     public static final ModConfigSpec.IntValue API_TIMEOUT_SECONDS;
     public static final ModConfigSpec.IntValue API_CACHE_DURATION_SECONDS;
+    public static final ModConfigSpec.IntValue API_CACHE_STALE_WHILE_REVALIDATE_SECONDS;
+    public static final ModConfigSpec.IntValue API_CACHE_STALE_IF_ERROR_SECONDS;
     public static final ModConfigSpec.BooleanValue API_SYNC_ON_STARTUP;
     public static final ModConfigSpec.BooleanValue API_LOG_LOGIN_EVENTS;
     public static final ModConfigSpec.ConfigValue<String> SERVER_ID;
     public static final ModConfigSpec.BooleanValue API_INCLUDE_EXPIRED;
+    public static final ModConfigSpec.BooleanValue API_DELTA_SYNC;
+    public static final ModConfigSpec.IntValue API_EVENT_BATCH_SIZE;
+    public static final ModConfigSpec.IntValue API_EVENT_FLUSH_INTERVAL_MS;
+    public static final ModConfigSpec.IntValue API_EVENT_QUEUE_CAPACITY;
+    public static final ModConfigSpec.IntValue API_REQUEST_QUEUE_CAPACITY;
+    public static final ModConfigSpec.IntValue API_REQUEST_CONCURRENCY;
+    public static final ModConfigSpec.EnumValue<RequestDispatcher.OverflowPolicy> API_REQUEST_OVERFLOW_POLICY;
+    public static final ModConfigSpec.BooleanValue API_CIRCUIT_BREAKER;
+    public static final ModConfigSpec.IntValue API_CIRCUIT_WINDOW_SIZE;
+    public static final ModConfigSpec.IntValue API_CIRCUIT_FAILURE_RATE;
+    public static final ModConfigSpec.IntValue API_CIRCUIT_SLOW_CALL_RATE;
+    public static final ModConfigSpec.IntValue API_CIRCUIT_SLOW_CALL_MILLIS;
+    public static final ModConfigSpec.IntValue API_CIRCUIT_OPEN_SECONDS;
+    public static final ModConfigSpec.IntValue API_CIRCUIT_MAX_OPEN_SECONDS;
+    public static final ModConfigSpec.BooleanValue API_HEDGE_REQUESTS;
+    public static final ModConfigSpec.IntValue API_HEDGE_PERCENTILE;
+    public static final ModConfigSpec.IntValue API_HEDGE_MIN_DELAY_MILLIS;
+    public static final ModConfigSpec.IntValue API_REQUEST_DEADLINE_SECONDS;
+    public static final ModConfigSpec.BooleanValue API_BINARY_WIRE_FORMAT;
+
+    // 指标导出配置
+    public static final ModConfigSpec.BooleanValue METRICS_ENABLED;
+    public static final ModConfigSpec.ConfigValue<String> METRICS_BIND_ADDRESS;
+    public static final ModConfigSpec.IntValue METRICS_PORT;
 
     static {
         ModConfigSpec.Builder builder = new ModConfigSpec.Builder();
@@ -42,6 +81,18 @@ public class Config {
         LOG_CUT_SIZE_MB = builder
                 .comment("Max log size (MB)")
                 .defineInRange("logCutSizeMB", 10, 1, 100);
+        BINARY_SNAPSHOT = builder
+                .comment("Keep a binary copy of the whitelist (cwhitelist_entries.bin) next to the JSON file for faster startup")
+                .define("binarySnapshot", true);
+        JOURNAL_FSYNC = builder
+                .comment("When whitelist changes in cwhitelist_entries.journal are flushed to disk: ALWAYS (every change), INTERVAL (once per second), NEVER (left to the OS)")
+                .defineEnum("journalFsync", WhitelistJournal.FsyncPolicy.INTERVAL);
+        JOURNAL_COMPACT_THRESHOLD = builder
+                .comment("Number of journal records after which the journal is compacted back into cwhitelist_entries.json")
+                .defineInRange("journalCompactThreshold", 1000, 10, 1000000);
+        WARM_START = builder
+                .comment("Save cached login decisions (cwhitelist_verdicts.bin) at shutdown and restore them at startup; in API mode, also serve logins from the local copy of the last sync while the startup sync runs")
+                .define("warmStart", true);
         builder.pop();
 
         // 检查配置
@@ -55,6 +106,33 @@ public class Config {
         ENABLE_IP_CHECK = builder
                 .comment("Enable IP check")
                 .define("enableIpCheck", true);
+        EARLY_REJECTION = builder
+                .comment("Reject non-whitelisted players at login start, before session authentication and player spawn")
+                .define("earlyRejection", false);
+        IP_PREFILTER = builder
+                .comment("When only the IP check is enabled, close connections from addresses matching no IP entry as soon as the channel becomes active")
+                .define("ipPrefilter", false);
+        DECISION_CACHE_SIZE = builder
+                .comment("Maximum number of cached login check results per UUID/IP/name (0 to disable); any whitelist change invalidates them")
+                .defineInRange("decisionCacheSize", 4096, 0, 1000000);
+        LOGIN_THROTTLE = builder
+                .comment("Reject login attempts from addresses that were denied too often, before running the IP check (only denied attempts use up the allowance; whitelisted names/UUIDs and loopback/private addresses are never throttled)")
+                .define("loginThrottle", true);
+        THROTTLE_DENIALS_PER_MINUTE = builder
+                .comment("Denied attempts per minute an address (or subnet) may make before it is throttled")
+                .defineInRange("throttleDenialsPerMinute", 10, 1, 10000);
+        THROTTLE_BURST = builder
+                .comment("Denied attempts an address (or subnet) may make in a burst before it is throttled")
+                .defineInRange("throttleBurst", 20, 1, 10000);
+        THROTTLE_IPV4_PREFIX = builder
+                .comment("IPv4 prefix length used to group addresses for throttling and deny summaries (32 = per address)")
+                .defineInRange("throttleIpv4Prefix", 32, 8, 32);
+        THROTTLE_IPV6_PREFIX = builder
+                .comment("IPv6 prefix length used to group addresses for throttling and deny summaries")
+                .defineInRange("throttleIpv6Prefix", 64, 16, 128);
+        DENY_SUMMARY_THRESHOLD = builder
+                .comment("Denials per minute from one address (or subnet) that are logged and reported individually; further denials are summarized once per minute (0 to log every denial)")
+                .defineInRange("denySummaryThreshold", 5, 0, 10000);
         builder.pop();
 
         // API配置
@@ -77,6 +155,12 @@ public class Config {
         API_CACHE_DURATION_SECONDS = builder
                 .comment("Cache duration in seconds (0 to disable)")
                 .defineInRange("cacheDurationSeconds", 30, 0, 3600);
+        API_CACHE_STALE_WHILE_REVALIDATE_SECONDS = builder
+                .comment("How long after the cache expires the old whitelist is still returned immediately while one background request refreshes it (0 to always wait for the API)")
+                .defineInRange("cacheStaleWhileRevalidateSeconds", 300, 0, 86400);
+        API_CACHE_STALE_IF_ERROR_SECONDS = builder
+                .comment("How long after the cache expires the last successfully synced whitelist is still returned when a sync fails, instead of an empty list (0 to disable)")
+                .defineInRange("cacheStaleIfErrorSeconds", 3600, 0, 604800);
         API_SYNC_ON_STARTUP = builder
                 .comment("Sync whitelist on mod startup")
                 .define("syncOnStartup", true);
@@ -89,6 +173,76 @@ public class Config {
         API_INCLUDE_EXPIRED = builder
                 .comment("Include expired entries when syncing")
                 .define("includeExpired", false);
+        API_DELTA_SYNC = builder
+                .comment("After local changes, fetch only entries added/removed since the last sync revision (falls back to a full sync when unsupported or the cursor expired)")
+                .define("deltaSync", true);
+        API_EVENT_BATCH_SIZE = builder
+                .comment("Maximum number of login/logout events sent in one batch request")
+                .defineInRange("eventBatchSize", 50, 1, 500);
+        API_EVENT_FLUSH_INTERVAL_MS = builder
+                .comment("Interval in milliseconds after which buffered login/logout events are sent even if the batch is not full")
+                .defineInRange("eventFlushIntervalMs", 2000, 100, 60000);
+        API_EVENT_QUEUE_CAPACITY = builder
+                .comment("Maximum number of buffered login/logout events; new events are dropped while the buffer is full")
+                .defineInRange("eventQueueCapacity", 1000, 10, 100000);
+        API_REQUEST_QUEUE_CAPACITY = builder
+                .comment("Maximum number of queued background API requests (login events etc.)")
+                .defineInRange("requestQueueCapacity", 256, 1, 10000);
+        API_REQUEST_CONCURRENCY = builder
+                .comment("Maximum number of background API requests in flight at the same time")
+                .defineInRange("requestConcurrency", 4, 1, 64);
+        API_REQUEST_OVERFLOW_POLICY = builder
+                .comment("What to do when the request queue is full: DROP_OLDEST, DROP_NEWEST, or SPILL (write to config/cwhitelist_request_spill.jsonl and resend later)")
+                .defineEnum("requestOverflowPolicy", RequestDispatcher.OverflowPolicy.DROP_OLDEST);
+        API_CIRCUIT_BREAKER = builder
+                .comment("Stop sending API requests for a while when too many of them fail or are slow, instead of waiting for every timeout")
+                .define("circuitBreaker", true);
+        API_CIRCUIT_WINDOW_SIZE = builder
+                .comment("Number of recent API calls the failure and slow-call rates are computed over")
+                .defineInRange("circuitWindowSize", 20, 4, 1000);
+        API_CIRCUIT_FAILURE_RATE = builder
+                .comment("Failure rate (percent) at which the circuit breaker opens")
+                .defineInRange("circuitFailureRateThreshold", 50, 1, 100);
+        API_CIRCUIT_SLOW_CALL_RATE = builder
+                .comment("Slow call rate (percent) at which the circuit breaker opens")
+                .defineInRange("circuitSlowCallRateThreshold", 80, 1, 100);
+        API_CIRCUIT_SLOW_CALL_MILLIS = builder
+                .comment("API calls taking at least this many milliseconds count as slow")
+                .defineInRange("circuitSlowCallMillis", 5000, 100, 60000);
+        API_CIRCUIT_OPEN_SECONDS = builder
+                .comment("Initial time in seconds the circuit breaker stays open before probing; doubles (with jitter) after each failed probe")
+                .defineInRange("circuitOpenSeconds", 5, 1, 300);
+        API_CIRCUIT_MAX_OPEN_SECONDS = builder
+                .comment("Maximum time in seconds the circuit breaker stays open between probes")
+                .defineInRange("circuitMaxOpenSeconds", 300, 1, 3600);
+        API_HEDGE_REQUESTS = builder
+                .comment("For whitelist sync and token verification, send a second identical request when the first has not answered within the hedge delay, and use whichever answers first")
+                .define("hedgeRequests", true);
+        API_HEDGE_PERCENTILE = builder
+                .comment("Hedge delay is this percentile of the endpoint's recent response times (last 10 minutes)")
+                .defineInRange("hedgePercentile", 95, 50, 99);
+        API_HEDGE_MIN_DELAY_MILLIS = builder
+                .comment("Lower bound of the hedge delay in milliseconds")
+                .defineInRange("hedgeMinDelayMillis", 50, 1, 60000);
+        API_REQUEST_DEADLINE_SECONDS = builder
+                .comment("Overall time budget in seconds for whitelist sync and token verification, including hedged requests, retries and the delta-to-full sync fallback")
+                .defineInRange("requestDeadlineSeconds", 30, 1, 600);
+        API_BINARY_WIRE_FORMAT = builder
+                .comment("Offer CBOR (application/cbor) for whitelist sync responses; once the API answers in CBOR, login events and bulk uploads are sent as CBOR too (falls back to JSON on HTTP 415)")
+                .define("binaryWireFormat", true);
+        builder.pop();
+
+        // 指标导出配置
+        builder.comment("Metrics Settings").push("metrics");
+        METRICS_ENABLED = builder
+                .comment("Serve whitelist and API client metrics in Prometheus/OpenMetrics format at http://<bindAddress>:<port>/metrics")
+                .define("enableMetrics", false);
+        METRICS_BIND_ADDRESS = builder
+                .comment("Address the metrics endpoint listens on (keep 127.0.0.1 unless the scraper runs on another host)")
+                .define("bindAddress", "127.0.0.1");
+        METRICS_PORT = builder
+                .comment("Port the metrics endpoint listens on")
+                .defineInRange("port", 9464, 1, 65535);
         builder.pop();
 
         SPEC = builder.build();
@@ -15,6 +15,7 @@ import net.neoforged.fml.event.lifecycle.FMLCommonSetupEvent;
 import net.neoforged.neoforge.common.NeoForge;
 import net.neoforged.neoforge.event.entity.player.PlayerEvent;
 import net.neoforged.neoforge.event.server.ServerStartingEvent;
+import net.neoforged.neoforge.event.server.ServerStoppingEvent;
 import net.neoforged.neoforge.event.RegisterCommandsEvent;
 import org.slf4j.Logger;
 
@@ -86,6 +87,9 @@ public class Cwhitelist {
     public void onServerStarting(ServerStartingEvent event) {
         LOGGER.info("CWhitelist mod is ready on server!");
 
+        MetricsExporter.start();
+        LoginThrottle.start();
+
         // 记录当前使用的白名单源
         if (Config.ENABLE_API.get()) {
             String source = WhitelistManager.isUsingApi() ?
@@ -102,6 +106,18 @@ public class Cwhitelist {
         }
     }
 
+    @SubscribeEvent
+    public void onServerStopping(ServerStoppingEvent event) {
+        // 输出尚未输出的拒绝摘要，再发送缓冲中尚未上报的登录/登出事件
+        LoginThrottle.stop();
+        EventBatcher.stop();
+        ApiClient.shutdown();
+        LogHandler.flush();
+        WhitelistManager.flushJournal();
+        WhitelistManager.saveVerdicts();
+        MetricsExporter.stop();
+    }
+
     /** 预加载的翻译表: languageCode -> (key -> value) */
     private static final Map<String, Map<String, String>> translations = new HashMap<>();
     private static final Gson GSON = new Gson();
@@ -171,7 +187,17 @@ public class Cwhitelist {
      * 确保客户端即使未安装本模组也能看到正确的翻译文本。
      */
     private static Component getKickMessageForPlayer(ServerPlayer player, String key) {
-        String langCode = player.clientInformation().language().toLowerCase();
+        return getKickMessage(player.clientInformation().language().toLowerCase(), key);
+    }
+
+    /**
+     * 按语言代码获取翻译后的踢出消息组件。
+     * 登录早期阶段尚未收到客户端语言信息时，传入 null 使用默认语言。
+     */
+    public static Component getKickMessage(String langCode, String key) {
+        if (langCode == null) {
+            langCode = DEFAULT_LANGUAGE;
+        }
         Map<String, String> langMap = translations.get(langCode);
 
         // 语言代码可能带有地区变体（如 zh_cn, zh-cn），尝试拆分匹配
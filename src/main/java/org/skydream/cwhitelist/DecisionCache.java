@@ -0,0 +1,186 @@
+package org.skydream.cwhitelist;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 玩家登录检查结果的有界缓存。
+ * <p>
+ * 以 (UUID, IP, 名称) 为键，记录命中的检查类型以及得出结论时的快照版本与检查开关。
+ * 白名单的任何变更都会让快照版本递增，旧结论在查询时自然失效，无需主动清理；
+ * 超出容量时先清除过期结论，仍不够再随机淘汰一部分。
+ * <p>
+ * 放行结论可以在关闭时写入磁盘，下次启动加载同样内容的白名单后恢复，
+ * 使重启后的重连高峰不必逐个重新检查。
+ */
+public final class DecisionCache {
+    private static final Map<Key, Decision> CACHE = new ConcurrentHashMap<>();
+    private static final AtomicBoolean EVICTING = new AtomicBoolean(false);
+
+    private static final int MAGIC = 0x43574C56;
+    private static final short FORMAT_VERSION = 1;
+
+    private DecisionCache() {
+    }
+
+    record Key(String uuid, String ip, String name) {
+        static Key of(String uuid, String ip, String name) {
+            return new Key(WhitelistManager.WhitelistIndex.normalize(uuid), ip,
+                    WhitelistManager.WhitelistIndex.normalize(name));
+        }
+    }
+
+    /**
+     * 一次检查的结论。checkType 为 null 表示拒绝。
+     */
+    record Decision(long version, int flags, String checkType) {
+    }
+
+    /**
+     * 把三个检查开关压缩为一个整数，开关变化时旧结论同样失效。
+     */
+    static int flags(boolean checkName, boolean checkUuid, boolean checkIp) {
+        return (checkName ? 1 : 0) | (checkUuid ? 2 : 0) | (checkIp ? 4 : 0);
+    }
+
+    /**
+     * 查找与给定快照版本和开关一致的结论，没有时返回 null。
+     */
+    static Decision get(Key key, long version, int flags) {
+        Decision decision = CACHE.get(key);
+        if (decision == null || decision.version() != version || decision.flags() != flags) {
+            return null;
+        }
+        return decision;
+    }
+
+    static void put(Key key, Decision decision) {
+        int capacity = Config.DECISION_CACHE_SIZE.get();
+        if (capacity <= 0) {
+            // 运行中关闭了缓存，丢弃已有结论
+            CACHE.clear();
+            return;
+        }
+        if (CACHE.size() >= capacity) {
+            evict(capacity, decision.version());
+        }
+        CACHE.put(key, decision);
+    }
+
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    public static int size() {
+        return CACHE.size();
+    }
+
+    /**
+     * 保存与给定快照版本一致的放行结论，返回写入的条数。
+     * 文件记录保存时间与白名单内容指纹，先写临时文件再原子替换。
+     */
+    static int save(Path path, long version, long contentHash) throws IOException {
+        List<Map.Entry<Key, Decision>> allowed = new ArrayList<>();
+        for (Map.Entry<Key, Decision> entry : CACHE.entrySet()) {
+            Decision decision = entry.getValue();
+            if (decision.version() == version && decision.checkType() != null) {
+                allowed.add(entry);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + allowed.size() * 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(contentHash);
+            out.writeInt(allowed.size());
+            for (Map.Entry<Key, Decision> entry : allowed) {
+                Key key = entry.getKey();
+                out.writeUTF(key.uuid());
+                out.writeUTF(key.ip());
+                out.writeUTF(key.name());
+                out.writeByte(entry.getValue().flags());
+                out.writeUTF(entry.getValue().checkType());
+            }
+        }
+
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tempPath, bytes.toByteArray());
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return allowed.size();
+    }
+
+    /**
+     * 读取保存的放行结论并以给定快照版本放入缓存，返回恢复的条数。
+     * 文件不存在、格式不符、已超过 maxAgeMillis 或白名单内容已变化时不恢复任何结论。
+     */
+    static int load(Path path, long version, long contentHash, long maxAgeMillis) throws IOException {
+        int capacity = Config.DECISION_CACHE_SIZE.get();
+        if (capacity <= 0 || !Files.exists(path)) {
+            return 0;
+        }
+
+        int restored = 0;
+        try (InputStream stream = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC || in.readShort() != FORMAT_VERSION) {
+                return 0;
+            }
+            long savedAt = in.readLong();
+            if (System.currentTimeMillis() - savedAt > maxAgeMillis || in.readLong() != contentHash) {
+                return 0;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count && CACHE.size() < capacity; i++) {
+                Key key = new Key(in.readUTF(), in.readUTF(), in.readUTF());
+                int flags = in.readByte();
+                String checkType = in.readUTF();
+                CACHE.putIfAbsent(key, new Decision(version, flags, checkType));
+                restored++;
+            }
+            return restored;
+        } catch (EOFException e) {
+            // 文件被截断，已读到的部分仍然有效
+            return restored;
+        }
+    }
+
+    private static void evict(int capacity, long currentVersion) {
+        // 只允许一个线程清理，其他线程直接写入，容量因此只是近似上限
+        if (!EVICTING.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            CACHE.values().removeIf(decision -> decision.version() != currentVersion);
+
+            if (CACHE.size() < capacity) {
+                return;
+            }
+            // 仍然超出时淘汰约 1/8，避免每次写入都触发清理
+            int excess = CACHE.size() - capacity + Math.max(1, capacity / 8);
+            Iterator<Key> it = CACHE.keySet().iterator();
+            while (excess-- > 0 && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        } finally {
+            EVICTING.set(false);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package org.skydream.cwhitelist;
+
+import com.google.gson.stream.JsonWriter;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 登录/登出事件批量发送器。
+ * <p>
+ * 事件先进入有界缓冲区，达到批量大小或刷新间隔时合并为一次 {@code POST /login/batch} 请求。
+ * 同一时间最多只有一个批次在途；API 变慢时事件在缓冲区中累积，缓冲区满则丢弃新事件并计数。
+ * 服务端不支持批量接口（404/405）时，自动退回逐条调用 {@code /login/log} 与 {@code /login/logout}。
+ * API 已协商使用 CBOR 时批量请求体以 CBOR 编码，收到 415 则改回 JSON 重发。
+ * 请求被分发器写入溢出文件时只计为延后，不计入已发送数量。
+ */
+public class EventBatcher {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    // 单个事件序列化后的估计字节数，用于预分配请求体缓冲区
+    private static final int ESTIMATED_EVENT_BYTES = 192;
+    private static final long REPORT_INTERVAL_MILLIS = 30_000;
+    private static final long SHUTDOWN_FLUSH_MILLIS = 10_000;
+
+    private static BlockingQueue<Event> buffer = new ArrayBlockingQueue<>(1000);
+    private static int batchSize = 50;
+    private static volatile ScheduledExecutorService executor;
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+    private static final AtomicBoolean flushing = new AtomicBoolean(false);
+    private static volatile boolean batchEndpointSupported = true;
+
+    // 统计
+    private static final AtomicLong droppedEvents = new AtomicLong();
+    private static final AtomicLong sentEvents = new AtomicLong();
+    private static final AtomicLong deferredEvents = new AtomicLong();
+    private static long droppedAtLastReport = 0;
+    private static long lastReportTime = 0;
+
+    /**
+     * 一条待发送的事件。logout 事件不携带 allowed 与 checkType；
+     * count 大于 1 表示同一来源被拒绝多次后合并的摘要事件。
+     */
+    record Event(boolean login, String playerName, String playerUuid, String playerIp,
+                 boolean allowed, String checkType, long timestamp, int count) {
+        Event(boolean login, String playerName, String playerUuid, String playerIp,
+              boolean allowed, String checkType, long timestamp) {
+            this(login, playerName, playerUuid, playerIp, allowed, checkType, timestamp, 1);
+        }
+    }
+
+    public static void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+
+        int capacity = Config.API_EVENT_QUEUE_CAPACITY.get();
+        batchSize = Math.min(Config.API_EVENT_BATCH_SIZE.get(), capacity);
+        buffer = new ArrayBlockingQueue<>(capacity);
+        long intervalMillis = Config.API_EVENT_FLUSH_INTERVAL_MS.get();
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "CWhitelist-EventBatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(EventBatcher::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+        LOGGER.info("Event batcher started (batch size: {}, flush interval: {}ms, capacity: {})",
+                batchSize, intervalMillis, capacity);
+    }
+
+    /**
+     * 停止定时刷新，并尽力把缓冲区中剩余的事件发送出去，总共最多等待 10 秒。
+     * 熔断器打开时请求在关闭前不会发出，只把事件交给请求分发器（SPILL 策略下写入磁盘），不等待结果。
+     */
+    public static void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        executor.shutdown();
+
+        CircuitBreaker breaker = ApiClient.getCircuitBreaker();
+        boolean wait = breaker == null || breaker.getState() != CircuitBreaker.State.OPEN;
+        if (!wait && !buffer.isEmpty()) {
+            LOGGER.info("API circuit breaker is open, handing {} pending events to the request queue", buffer.size());
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_FLUSH_MILLIS);
+        while (!buffer.isEmpty()) {
+            List<Event> batch = drain();
+            CompletableFuture<Boolean> sent = send(batch);
+            if (!wait) {
+                continue;
+            }
+            try {
+                sent.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // 之后的批次仍交给分发器，但不再等待
+                LOGGER.warn("Timed out flushing events on shutdown, {} events left unconfirmed", batch.size() + buffer.size());
+                wait = false;
+            } catch (Exception e) {
+                LOGGER.warn("Failed to flush {} pending events on shutdown", batch.size() + buffer.size());
+                break;
+            }
+        }
+    }
+
+    public static void enqueue(Event event) {
+        if (!running.get()) {
+            return;
+        }
+
+        if (!buffer.offer(event)) {
+            droppedEvents.incrementAndGet();
+            report();
+            return;
+        }
+
+        if (buffer.size() >= batchSize && !flushing.get()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * 在发送线程上安排一次刷新。stop() 可能在检查 running 之后关闭执行器，
+     * 此时剩余事件由 stop() 发送，这里忽略拒绝，不把异常抛给登录流程。
+     */
+    private static void scheduleFlush() {
+        ScheduledExecutorService current = executor;
+        if (!running.get() || current == null || current.isShutdown()) {
+            return;
+        }
+        try {
+            current.execute(EventBatcher::flush);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Event batcher is shutting down, skipping flush");
+        }
+    }
+
+    private static void flush() {
+        if (buffer.isEmpty() || !flushing.compareAndSet(false, true)) {
+            return;
+        }
+
+        List<Event> batch = drain();
+        send(batch).whenComplete((ok, e) -> {
+            flushing.set(false);
+            report();
+            // 积压超过一个批次时立即继续发送
+            if (buffer.size() >= batchSize) {
+                scheduleFlush();
+            }
+        });
+    }
+
+    private static List<Event> drain() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        buffer.drainTo(batch, batchSize);
+        return batch;
+    }
+
+    private static CompletableFuture<Boolean> send(List<Event> batch) {
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        if (!batchEndpointSupported) {
+            return sendIndividually(batch);
+        }
+
+        boolean binary = ApiClient.useBinaryBodies();
+        CompletableFuture<String> request;
+        if (binary) {
+            request = ApiClient.postEvents("/login/batch", Cbor.CONTENT_TYPE, writeBatchCbor(batch));
+        } else {
+            String body;
+            try {
+                body = writeBatch(batch);
+            } catch (IOException e) {
+                LOGGER.error("Failed to serialize event batch", e);
+                return CompletableFuture.completedFuture(false);
+            }
+            request = ApiClient.postEvents("/login/batch", body);
+        }
+
+        return request
+                .thenApply(v -> {
+                    sentEvents.addAndGet(batch.size());
+                    LOGGER.debug("Sent batch of {} events", batch.size());
+                    return true;
+                })
+                .exceptionallyCompose(e -> {
+                    if (isSpilled(e)) {
+                        deferredEvents.addAndGet(batch.size());
+                        LOGGER.debug("Batch of {} events saved to disk, it will be sent later", batch.size());
+                        return CompletableFuture.completedFuture(true);
+                    }
+                    int status = ApiClient.findApiStatus(e);
+                    if (binary && status == 415) {
+                        ApiClient.rejectBinaryBodies();
+                        return send(batch);
+                    }
+                    if (status == 404 || status == 405) {
+                        batchEndpointSupported = false;
+                        LOGGER.warn("API does not support /login/batch (HTTP {}), sending events individually", status);
+                        return sendIndividually(batch);
+                    }
+                    LOGGER.warn("Failed to send batch of {} events to API: {}", batch.size(), e.getMessage());
+                    return CompletableFuture.completedFuture(false);
+                });
+    }
+
+    private static CompletableFuture<Boolean> sendIndividually(List<Event> batch) {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(batch.size());
+        for (Event event : batch) {
+            try {
+                String body = writeSingle(event);
+                futures.add(ApiClient.postEvents(event.login() ? "/login/log" : "/login/logout", body)
+                        .thenApply(v -> {
+                            sentEvents.incrementAndGet();
+                            return true;
+                        })
+                        .exceptionally(e -> {
+                            if (isSpilled(e)) {
+                                deferredEvents.incrementAndGet();
+                                return true;
+                            }
+                            LOGGER.warn("Failed to log {} event to API", event.login() ? "login" : "logout", e);
+                            return false;
+                        }));
+            } catch (IOException e) {
+                LOGGER.error("Error preparing event request", e);
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> true);
+    }
+
+    private static boolean isSpilled(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RequestDispatcher.SpilledException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 序列化一个批次：{"server_id": ..., "events": [...]}。
+     */
+    static String writeBatch(List<Event> batch) throws IOException {
+        StringWriter out = new StringWriter(64 + batch.size() * ESTIMATED_EVENT_BYTES);
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("server_id").value(ApiClient.getEffectiveServerId());
+            writer.name("events").beginArray();
+            for (Event event : batch) {
+                writer.beginObject();
+                writer.name("event").value(event.login() ? "login" : "logout");
+                writeFields(writer, event);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        return out.toString();
+    }
+
+    /**
+     * 与 {@link #writeBatch} 结构相同的 CBOR 请求体。
+     */
+    static byte[] writeBatchCbor(List<Event> batch) {
+        Cbor.Writer writer = new Cbor.Writer(32 + batch.size() * ESTIMATED_EVENT_BYTES / 2);
+        writer.beginMap(2);
+        writer.name("server_id").value(ApiClient.getEffectiveServerId());
+        writer.name("events").beginArray(batch.size());
+        for (Event event : batch) {
+            writer.beginMap(1 + fieldCount(event));
+            writer.name("event").value(event.login() ? "login" : "logout");
+            writeFields(writer, event);
+        }
+        return writer.toByteArray();
+    }
+
+    private static String writeSingle(Event event) throws IOException {
+        StringWriter out = new StringWriter(ESTIMATED_EVENT_BYTES);
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writeFields(writer, event);
+            writer.name("server_id").value(ApiClient.getEffectiveServerId());
+            writer.endObject();
+        }
+        return out.toString();
+    }
+
+    private static void writeFields(JsonWriter writer, Event event) throws IOException {
+        writer.name("player_name").value(event.playerName());
+        writer.name("player_uuid").value(event.playerUuid());
+        writer.name("player_ip").value(event.playerIp());
+        if (event.login()) {
+            writer.name("allowed").value(event.allowed());
+            writer.name("check_type").value(event.checkType() != null ? event.checkType() : "none");
+            if (event.count() > 1) {
+                writer.name("count").value(event.count());
+            }
+        }
+        writer.name("timestamp").value(event.timestamp());
+    }
+
+    /**
+     * 与 JSON 版本写出相同的字段；CBOR 映射需要预先给出字段数，见 {@link #fieldCount}。
+     */
+    private static void writeFields(Cbor.Writer writer, Event event) {
+        writer.name("player_name").value(event.playerName());
+        writer.name("player_uuid").value(event.playerUuid());
+        writer.name("player_ip").value(event.playerIp());
+        if (event.login()) {
+            writer.name("allowed").value(event.allowed());
+            writer.name("check_type").value(event.checkType() != null ? event.checkType() : "none");
+            if (event.count() > 1) {
+                writer.name("count").value(event.count());
+            }
+        }
+        writer.name("timestamp").value(event.timestamp());
+    }
+
+    private static int fieldCount(Event event) {
+        if (!event.login()) {
+            return 4;
+        }
+        return event.count() > 1 ? 7 : 6;
+    }
+
+    /**
+     * API 变慢导致积压或丢弃时，定期输出一次排队与丢弃数量。
+     */
+    private static synchronized void report() {
+        long now = System.currentTimeMillis();
+        if (now - lastReportTime < REPORT_INTERVAL_MILLIS) {
+            return;
+        }
+
+        long dropped = droppedEvents.get();
+        int queued = buffer.size();
+        if (dropped > droppedAtLastReport || queued >= batchSize * 2) {
+            LOGGER.warn("Event queue backlog: {} queued, {} dropped since last report ({} dropped total)",
+                    queued, dropped - droppedAtLastReport, dropped);
+            droppedAtLastReport = dropped;
+            lastReportTime = now;
+        }
+    }
+
+    public static int getQueuedCount() {
+        return buffer.size();
+    }
+
+    public static long getDroppedCount() {
+        return droppedEvents.get();
+    }
+
+    public static long getSentCount() {
+        return sentEvents.get();
+    }
+
+    /** 写入溢出文件、尚未确认发出的事件数 */
+    public static long getDeferredCount() {
+        return deferredEvents.get();
+    }
+}
@@ -0,0 +1,465 @@
+package org.skydream.cwhitelist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * IP规则匹配器：IPv4 与 IPv6 各一棵二进制前缀树（radix trie）。
+ * <p>
+ * 支持的规则写法：
+ * <ul>
+ *     <li>精确地址：{@code 192.168.1.10}、{@code 2001:db8::1}</li>
+ *     <li>CIDR：{@code 10.0.0.0/8}、{@code 2001:db8::/32}</li>
+ *     <li>按段对齐的通配符：{@code 192.168.*.*}、{@code 192.168.*}、{@code 2001:db8:*}</li>
+ *     <li>单独的 {@code *}：匹配任意地址</li>
+ * </ul>
+ * 无法表示为前缀的旧式通配符（如 {@code 192.168.1.1*}）退回到不区分大小写的 glob 匹配，
+ * 行为与旧版正则实现保持一致。
+ * <p>
+ * 匹配时只对地址字符串做一次前缀遍历，不使用正则，也不分配对象。
+ * 规则只能添加不能删除，白名单变化时由调用方重建新的匹配器。
+ * 本类不是线程安全的，写入后应只读使用，或由调用方加锁。
+ */
+public class IpMatcher {
+    private final BitTrie v4 = new BitTrie();
+    private final BitTrie v6 = new BitTrie();
+    private final List<String> globPatterns = new ArrayList<>();
+    private boolean matchAll = false;
+    private int ruleCount = 0;
+
+    /**
+     * 添加一条IP规则。
+     *
+     * @return 规则是否被识别为前缀（false 表示退回 glob 匹配）
+     */
+    public boolean add(String pattern) {
+        if (pattern == null) {
+            return false;
+        }
+        String p = pattern.trim();
+        if (p.isEmpty()) {
+            return false;
+        }
+        ruleCount++;
+
+        if (p.equals("*")) {
+            matchAll = true;
+            return true;
+        }
+
+        long[] addr = new long[2];
+        int prefix = parseRule(p, addr);
+        if (prefix >= 0) {
+            BitTrie trie = p.indexOf(':') >= 0 ? v6 : v4;
+            trie.add(addr[0], addr[1], prefix);
+            return true;
+        }
+
+        globPatterns.add(p);
+        return false;
+    }
+
+    public int size() {
+        return ruleCount;
+    }
+
+    public boolean isEmpty() {
+        return ruleCount == 0;
+    }
+
+    /**
+     * 检查给定地址（{@link java.net.InetAddress#getHostAddress()} 的格式）是否命中任一规则。
+     */
+    public boolean matches(String ip) {
+        if (ip == null) {
+            return false;
+        }
+        if (matchAll) {
+            return true;
+        }
+
+        int end = ip.indexOf('%');
+        if (end < 0) {
+            end = ip.length();
+        }
+
+        if (ip.indexOf(':') >= 0) {
+            if (!v6.isEmpty()) {
+                long hi = 0, lo = 0;
+                boolean valid = true;
+                for (int g = 0; g < 8; g++) {
+                    int group = ipv6Group(ip, end, g);
+                    if (group < 0) {
+                        valid = false;
+                        break;
+                    }
+                    if (g < 4) {
+                        hi = (hi << 16) | group;
+                    } else {
+                        lo = (lo << 16) | group;
+                    }
+                }
+                if (valid && v6.matches(hi, lo, 128)) {
+                    return true;
+                }
+            }
+        } else if (!v4.isEmpty()) {
+            long v = parseIpv4(ip, 0, end);
+            if (v >= 0 && v4.matches(v << 32, 0, 32)) {
+                return true;
+            }
+        }
+
+        for (int i = 0; i < globPatterns.size(); i++) {
+            if (globMatch(globPatterns.get(i), ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------
+    // 规则解析
+    // ---------------------------------------------------------------------
+
+    /**
+     * 将规则解析为前缀，地址写入 out（高位在前），返回前缀长度；无法解析返回 -1。
+     */
+    static int parseRule(String p, long[] out) {
+        boolean isV6 = p.indexOf(':') >= 0;
+        int maxBits = isV6 ? 128 : 32;
+
+        int slash = p.indexOf('/');
+        if (slash >= 0) {
+            if (p.indexOf('*') >= 0) {
+                return -1;
+            }
+            int bits;
+            try {
+                bits = Integer.parseInt(p.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            if (bits < 0 || bits > maxBits) {
+                return -1;
+            }
+            return parseAddress(p.substring(0, slash).trim(), isV6, out) ? bits : -1;
+        }
+
+        if (p.indexOf('*') < 0) {
+            return parseAddress(p, isV6, out) ? maxBits : -1;
+        }
+
+        return isV6 ? parseIpv6Wildcard(p, out) : parseIpv4Wildcard(p, out);
+    }
+
+    private static boolean parseAddress(String s, boolean isV6, long[] out) {
+        if (isV6) {
+            int end = s.indexOf('%');
+            if (end < 0) {
+                end = s.length();
+            }
+            long hi = 0, lo = 0;
+            for (int g = 0; g < 8; g++) {
+                int group = ipv6Group(s, end, g);
+                if (group < 0) {
+                    return false;
+                }
+                if (g < 4) {
+                    hi = (hi << 16) | group;
+                } else {
+                    lo = (lo << 16) | group;
+                }
+            }
+            out[0] = hi;
+            out[1] = lo;
+            return true;
+        }
+        long v = parseIpv4(s, 0, s.length());
+        if (v < 0) {
+            return false;
+        }
+        out[0] = v << 32;
+        out[1] = 0;
+        return true;
+    }
+
+    /**
+     * 解析 {@code a.b.*.*} 形式：前面若干段为数字，之后全部为 {@code *}。
+     */
+    private static int parseIpv4Wildcard(String p, long[] out) {
+        String[] parts = p.split("\\.", -1);
+        if (parts.length > 4) {
+            return -1;
+        }
+        long value = 0;
+        int fixed = 0;
+        boolean inWildcard = false;
+        for (String part : parts) {
+            if (part.equals("*")) {
+                inWildcard = true;
+                continue;
+            }
+            if (inWildcard) {
+                return -1;
+            }
+            int octet = parseOctet(part, 0, part.length());
+            if (octet < 0) {
+                return -1;
+            }
+            value = (value << 8) | octet;
+            fixed++;
+        }
+        if (!inWildcard) {
+            return -1;
+        }
+        out[0] = (value << (8 * (4 - fixed))) << 32;
+        out[1] = 0;
+        return fixed * 8;
+    }
+
+    /**
+     * 解析 {@code 2001:db8:*}、{@code 2001:db8::*} 形式：前面若干组为十六进制，之后全部为通配。
+     */
+    private static int parseIpv6Wildcard(String p, long[] out) {
+        String[] parts = p.split(":", -1);
+        long hi = 0, lo = 0;
+        int fixed = 0;
+        boolean inWildcard = false;
+        for (String part : parts) {
+            if (part.equals("*") || part.isEmpty()) {
+                // 旧版实现中 "::" 后接通配符等价于前缀匹配
+                inWildcard = true;
+                continue;
+            }
+            if (inWildcard || fixed >= 8) {
+                return -1;
+            }
+            int group = parseHexGroup(part, 0, part.length());
+            if (group < 0) {
+                return -1;
+            }
+            if (fixed < 4) {
+                hi |= (long) group << (16 * (3 - fixed));
+            } else {
+                lo |= (long) group << (16 * (7 - fixed));
+            }
+            fixed++;
+        }
+        if (!inWildcard || !p.endsWith("*")) {
+            return -1;
+        }
+        out[0] = hi;
+        out[1] = lo;
+        return fixed * 16;
+    }
+
+    // ---------------------------------------------------------------------
+    // 无分配的地址解析
+    // ---------------------------------------------------------------------
+
+    /**
+     * 解析点分十进制 IPv4 地址为无符号 32 位值，非法返回 -1。
+     */
+    static long parseIpv4(String s, int from, int to) {
+        long value = 0;
+        int parts = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || s.charAt(i) == '.') {
+                int octet = parseOctet(s, start, i);
+                if (octet < 0 || parts == 4) {
+                    return -1;
+                }
+                value = (value << 8) | octet;
+                parts++;
+                start = i + 1;
+            }
+        }
+        return parts == 4 ? value : -1;
+    }
+
+    private static int parseOctet(String s, int from, int to) {
+        if (to <= from || to - from > 3) {
+            return -1;
+        }
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return v <= 255 ? v : -1;
+    }
+
+    private static int parseHexGroup(String s, int from, int to) {
+        if (to <= from || to - from > 4) {
+            return -1;
+        }
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            int d = Character.digit(s.charAt(i), 16);
+            if (d < 0) {
+                return -1;
+            }
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    /**
+     * 读取 IPv6 地址 s[0, end) 中第 g 组（0-7）的值，支持 "::" 缩写；非法返回 -1。
+     */
+    static int ipv6Group(String s, int end, int g) {
+        int dc = s.indexOf("::");
+        if (dc >= end) {
+            dc = -1;
+        }
+
+        if (dc < 0) {
+            return groupAt(s, 0, end, g, 8);
+        }
+        if (s.indexOf("::", dc + 1) >= 0 && s.indexOf("::", dc + 1) < end) {
+            return -1;
+        }
+
+        int headCount = countGroups(s, 0, dc);
+        int tailCount = countGroups(s, dc + 2, end);
+        if (headCount < 0 || tailCount < 0 || headCount + tailCount > 7) {
+            return -1;
+        }
+
+        if (g < headCount) {
+            return groupAt(s, 0, dc, g, headCount);
+        }
+        int tailStart = 8 - tailCount;
+        if (g >= tailStart) {
+            return groupAt(s, dc + 2, end, g - tailStart, tailCount);
+        }
+        return 0;
+    }
+
+    private static int countGroups(String s, int from, int to) {
+        if (to <= from) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == ':') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int groupAt(String s, int from, int to, int index, int expected) {
+        int current = 0;
+        int start = from;
+        int found = -1;
+        for (int i = from; i <= to; i++) {
+            if (i == to || s.charAt(i) == ':') {
+                if (current == index) {
+                    found = parseHexGroup(s, start, i);
+                }
+                current++;
+                start = i + 1;
+            }
+        }
+        return current == expected ? found : -1;
+    }
+
+    /**
+     * 不区分大小写的 glob 匹配，仅支持 {@code *}。
+     */
+    static boolean globMatch(String pattern, String text) {
+        int p = 0, t = 0, star = -1, mark = 0;
+        while (t < text.length()) {
+            if (p < pattern.length() && pattern.charAt(p) != '*'
+                    && Character.toLowerCase(pattern.charAt(p)) == Character.toLowerCase(text.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    // ---------------------------------------------------------------------
+    // 二进制前缀树
+    // ---------------------------------------------------------------------
+
+    /**
+     * 以数组存储的二进制前缀树，节点 0 为根。
+     * 每个节点记录是否有规则以该节点结尾。
+     */
+    static final class BitTrie {
+        private int[] children = new int[2 * 64];
+        private boolean[] terminals = new boolean[64];
+        private int nodeCount = 1;
+        private int prefixCount = 0;
+
+        boolean isEmpty() {
+            return prefixCount == 0;
+        }
+
+        private static int bitAt(long hi, long lo, int i) {
+            return i < 64
+                    ? (int) ((hi >>> (63 - i)) & 1L)
+                    : (int) ((lo >>> (127 - i)) & 1L);
+        }
+
+        void add(long hi, long lo, int prefixLen) {
+            int node = 0;
+            for (int i = 0; i < prefixLen; i++) {
+                int slot = 2 * node + bitAt(hi, lo, i);
+                int next = children[slot];
+                if (next == 0) {
+                    next = newNode();
+                    children[slot] = next;
+                }
+                node = next;
+            }
+            if (!terminals[node]) {
+                terminals[node] = true;
+                prefixCount++;
+            }
+        }
+
+        boolean matches(long hi, long lo, int bits) {
+            int node = 0;
+            for (int i = 0; ; i++) {
+                if (terminals[node]) {
+                    return true;
+                }
+                if (i == bits) {
+                    return false;
+                }
+                node = children[2 * node + bitAt(hi, lo, i)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+        }
+
+        private int newNode() {
+            if (nodeCount == terminals.length) {
+                terminals = Arrays.copyOf(terminals, terminals.length * 2);
+                children = Arrays.copyOf(children, children.length * 2);
+            }
+            return nodeCount++;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.skydream.cwhitelist;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import org.slf4j.Logger;
+import com.mojang.logging.LogUtils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端 Netty 管线中的IP预过滤器。
+ * <p>
+ * 当只启用了IP检查时，无法命中任何IP规则的连接无论如何都会被拒绝，
+ * 因此在通道激活时直接关闭，不再进行握手、加密或创建任何玩家对象。
+ * 放行的连接会立即把本处理器从管线中移除，之后的数据包不再经过这里。
+ */
+@ChannelHandler.Sharable
+public class IpPrefilterHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    public static final String HANDLER_NAME = "cwhitelist_ip_prefilter";
+    public static final IpPrefilterHandler INSTANCE = new IpPrefilterHandler();
+
+    private static final LongAdder rejectedConnections = new LongAdder();
+
+    private IpPrefilterHandler() {
+    }
+
+    /**
+     * 在新建的服务端连接管线最前面安装预过滤器。
+     */
+    public static void install(ChannelPipeline pipeline) {
+        if (pipeline.get(HANDLER_NAME) == null) {
+            pipeline.addFirst(HANDLER_NAME, INSTANCE);
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (WhitelistManager.shouldRejectConnection(ctx.channel().remoteAddress())) {
+            rejectedConnections.increment();
+            LOGGER.debug("Closing connection from {} at channel activation (no matching IP entry)",
+                    ctx.channel().remoteAddress());
+            // 先让后续处理器完成激活，使连接能被服务端正常回收，再立即关闭
+            super.channelActive(ctx);
+            ctx.close();
+            return;
+        }
+
+        ctx.pipeline().remove(this);
+        super.channelActive(ctx);
+    }
+
+    public static long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+}
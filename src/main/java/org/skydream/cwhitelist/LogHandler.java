@@ -4,9 +4,19 @@ import io.netty.channel.local.LocalAddress;
 import net.minecraft.server.level.ServerPlayer;
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 public class LogHandler {
@@ -18,18 +28,38 @@ public class LogHandler {
     private static final int LOG_RETENTION_DAYS = Config.LOG_RETENTION_DAYS.get(); // 日志保留天数
     private static final long LOG_CUT_SIZE_MB = Config.LOG_CUT_SIZE_MB.get() * 1024 * 1024; // 最大日志文件大小（单位：字节）
 
+    // 异步写入：登录线程只把记录放进有界环形缓冲区，由后台线程批量写盘
+    private static final int BUFFER_CAPACITY = 4096;
+    private static final int MAX_BATCH = 256;
+    private static final BlockingQueue<LogRecord> buffer = new ArrayBlockingQueue<>(BUFFER_CAPACITY);
+    private static final AtomicLong droppedRecords = new AtomicLong();
+    // 已入队但尚未写入磁盘的记录数
+    private static final AtomicInteger pendingRecords = new AtomicInteger();
+
+    // 以下字段只由写入线程访问
+    private static FileChannel channel;
+    private static LocalDate channelDate;
+    private static long channelSize;
+
+    // count 大于 1 表示一条合并后的拒绝摘要
+    private record LogRecord(long timestamp, boolean allowed, String name, String uuid, String ip, int count) {
+    }
+
     static {
         try {
             Files.createDirectories(LOG_DIR);
         } catch (IOException e) {
             Cwhitelist.LOGGER.error("Failed to create log directory", e);
         }
+
+        Thread writerThread = new Thread(LogHandler::runWriter, "CWhitelist-LogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
     }
 
     public static void log(ServerPlayer player, boolean allowed) {
         boolean ENABLE_LOGGING = Config.ENABLE_LOGGING.get();
         if (ENABLE_LOGGING) {
-            String time = LocalDateTime.now().format(TIME_FORMAT);
             String name = PlayerCompat.getPlayerNameSafe(player);
             String uuid = PlayerCompat.getPlayerUuidSafe(player);
 
@@ -43,20 +73,154 @@ public class LogHandler {
                 Cwhitelist.LOGGER.error("Failed to get player IP", e);
             }
 
-            String result = allowed ? "ALLOW" : "DENY";
+            log(name, uuid, ip, allowed);
+        }
+    }
+
+    /**
+     * 记录一次登录检查结果。用于尚未创建 ServerPlayer 的登录早期阶段。
+     */
+    public static void log(String name, String uuid, String ip, boolean allowed) {
+        enqueue(name, uuid, ip, allowed, 1);
+    }
+
+    /**
+     * 记录同一来源在一个统计窗口内被拒绝的总次数，代替逐条记录。source 可以是地址或网段。
+     */
+    public static void logDenialSummary(String name, String uuid, String source, int count) {
+        enqueue(name, uuid, source, false, count);
+    }
+
+    private static void enqueue(String name, String uuid, String ip, boolean allowed, int count) {
+        boolean ENABLE_LOGGING = Config.ENABLE_LOGGING.get();
+        if (ENABLE_LOGGING) {
+            pendingRecords.incrementAndGet();
+            if (!buffer.offer(new LogRecord(System.currentTimeMillis(), allowed, name, uuid, ip, count))) {
+                pendingRecords.decrementAndGet();
+                // 缓冲区已满说明磁盘跟不上，丢弃记录而不是阻塞登录线程
+                droppedRecords.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 等待缓冲区中已有的记录写入磁盘，最多等待 5 秒。服务器关闭时调用。
+     */
+    public static void flush() {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (pendingRecords.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
 
-            String logLine = String.format("[%s] [%s] %s %s %s\n", time, result, name, uuid, ip);
+    public static long getDroppedCount() {
+        return droppedRecords.get();
+    }
 
+    private static void runWriter() {
+        List<LogRecord> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder text = new StringBuilder(MAX_BATCH * 96);
+        long reportedDropped = 0;
+        while (true) {
             try {
-                Path logFile = LOG_DIR.resolve(LocalDate.now().format(DATE_FORMAT) + ".log");
-                if (Files.exists(logFile) && Files.size(logFile) >= LOG_CUT_SIZE_MB) {
-                    rotateLogFile(logFile); // 如果文件过大，进行日志轮转
-                }
-                Files.writeString(logFile, logLine, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                batch.add(buffer.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            buffer.drainTo(batch, MAX_BATCH - 1);
+
+            try {
+                writeBatch(batch, text);
             } catch (IOException e) {
                 Cwhitelist.LOGGER.error("Failed to write log", e);
+                closeChannel();
+            }
+            pendingRecords.addAndGet(-batch.size());
+            batch.clear();
+
+            long dropped = droppedRecords.get();
+            if (dropped > reportedDropped) {
+                Cwhitelist.LOGGER.warn("Log buffer was full, dropped {} login records", dropped - reportedDropped);
+                reportedDropped = dropped;
             }
         }
+        closeChannel();
+    }
+
+    /**
+     * 把一批记录按日期分段写入当天的日志文件；跨天或文件超过大小限制时切换文件。
+     */
+    private static void writeBatch(List<LogRecord> batch, StringBuilder text) throws IOException {
+        LocalDate segmentDate = null;
+        for (LogRecord record : batch) {
+            LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp()), ZoneId.systemDefault());
+            LocalDate date = dateTime.toLocalDate();
+            if (segmentDate != null && !date.equals(segmentDate)) {
+                flushText(segmentDate, text);
+            }
+            segmentDate = date;
+
+            text.append('[').append(dateTime.format(TIME_FORMAT)).append("] [")
+                    .append(record.allowed() ? "ALLOW" : "DENY");
+            if (record.count() > 1) {
+                text.append(" x").append(record.count());
+            }
+            text.append("] ")
+                    .append(record.name()).append(' ')
+                    .append(record.uuid()).append(' ')
+                    .append(record.ip()).append('\n');
+        }
+        if (segmentDate != null) {
+            flushText(segmentDate, text);
+        }
+    }
+
+    private static void flushText(LocalDate date, StringBuilder text) throws IOException {
+        if (channel == null || !date.equals(channelDate)) {
+            openChannel(date);
+        } else if (channelSize >= LOG_CUT_SIZE_MB) {
+            closeChannel();
+            rotateLogFile(logFileFor(date)); // 如果文件过大，进行日志轮转
+            openChannel(date);
+        }
+
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+        text.setLength(0);
+        while (bytes.hasRemaining()) {
+            channelSize += channel.write(bytes);
+        }
+    }
+
+    private static void openChannel(LocalDate date) throws IOException {
+        closeChannel();
+        Path logFile = logFileFor(date);
+        if (Files.exists(logFile) && Files.size(logFile) >= LOG_CUT_SIZE_MB) {
+            rotateLogFile(logFile);
+        }
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelDate = date;
+        channelSize = channel.size();
+    }
+
+    private static void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Cwhitelist.LOGGER.error("Failed to close log file", e);
+            }
+            channel = null;
+            channelDate = null;
+        }
+    }
+
+    private static Path logFileFor(LocalDate date) {
+        return LOG_DIR.resolve(date.format(DATE_FORMAT) + ".log");
     }
 
     /**
@@ -0,0 +1,309 @@
+package org.skydream.cwhitelist;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按来源地址限制被拒绝的登录尝试，并合并重复的拒绝记录。
+ * <p>
+ * 来源按配置的前缀长度归并（IPv4 默认 /32，IPv6 默认 /64）。状态保存在固定大小的槽位表中，
+ * 按来源指纹散列定位并按条带加锁，内存占用与攻击者使用的地址数量无关；指纹冲突时新来源直接接管槽位。
+ * <p>
+ * 每个来源有一个令牌桶，只有被拒绝的尝试才消耗令牌，白名单内的玩家不会耗尽所在地址的令牌；
+ * 令牌耗尽的来源在 IP 规则检查之前即被拒绝，名称与 UUID 的精确匹配仍先于限流执行，
+ * 与被拒绝者共用地址的白名单玩家不受影响。本机、内网与链路本地地址通常是代理或运营商 NAT 的出口，
+ * 不参与限流。同一来源在一个统计窗口内的拒绝次数超过阈值后，
+ * 不再逐条写日志与上报事件，窗口结束时合并为一条摘要。
+ */
+public final class LoginThrottle {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final int SLOTS = 4096;
+    private static final int STRIPES = 64;
+    private static final long WINDOW_MILLIS = 60_000;
+    private static final long SWEEP_INTERVAL_MILLIS = 5_000;
+
+    private static final Object[] LOCKS = new Object[STRIPES];
+    // 以下数组按槽位下标访问，由槽位所在条带的锁保护
+    private static final long[] keys = new long[SLOTS];
+    private static final double[] tokens = new double[SLOTS];
+    private static final long[] refillNanos = new long[SLOTS];
+    private static final long[] windowStart = new long[SLOTS];
+    private static final int[] windowDenials = new int[SLOTS];
+    private static final int[] suppressed = new int[SLOTS];
+    private static final String[] sources = new String[SLOTS];
+    private static final String[] lastNames = new String[SLOTS];
+    private static final String[] lastUuids = new String[SLOTS];
+
+    private static ScheduledExecutorService sweeper;
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private LoginThrottle() {
+    }
+
+    /**
+     * 一条待输出的拒绝摘要。
+     */
+    private record Summary(String source, String name, String uuid, int count, long seconds) {
+    }
+
+    /**
+     * 启动后台线程，定期输出已结束窗口的拒绝摘要。
+     */
+    public static synchronized void start() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "CWhitelist-LoginThrottle");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep(false);
+            } catch (Exception e) {
+                LOGGER.error("Login throttle sweep failed", e);
+            }
+        }, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台线程并输出所有尚未输出的摘要，需在 {@link EventBatcher#stop()} 之前调用。
+     */
+    public static synchronized void stop() {
+        if (sweeper == null) {
+            return;
+        }
+        sweeper.shutdown();
+        sweeper = null;
+        sweep(true);
+    }
+
+    /**
+     * 该来源的令牌是否已经耗尽。令牌耗尽的来源应在 IP 规则检查之前直接拒绝。
+     */
+    public static boolean isThrottled(String ip) {
+        if (!Config.LOGIN_THROTTLE.get() || isSharedAddress(ip)) {
+            return false;
+        }
+        long[] address = new long[2];
+        long key = sourceKey(ip, address);
+        if (key == 0) {
+            return false;
+        }
+
+        int slot = slotOf(key);
+        synchronized (LOCKS[slot & (STRIPES - 1)]) {
+            if (keys[slot] != key) {
+                return false;
+            }
+            refill(slot, System.nanoTime());
+            return tokens[slot] < 1;
+        }
+    }
+
+    /**
+     * 记录一次被拒绝的尝试（包括被限流的尝试）。
+     *
+     * @return 是否应逐条记录本次拒绝；返回 false 时本次拒绝已计入摘要，调用方不应再写日志或上报事件
+     */
+    public static boolean recordDenial(String ip, String name, String uuid) {
+        boolean throttle = Config.LOGIN_THROTTLE.get();
+        int threshold = Config.DENY_SUMMARY_THRESHOLD.get();
+        if (!throttle && threshold <= 0) {
+            return true;
+        }
+
+        long[] address = new long[2];
+        long key = sourceKey(ip, address);
+        if (key == 0) {
+            return true;
+        }
+
+        int slot = slotOf(key);
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        Summary summary = null;
+        boolean logIndividually;
+
+        synchronized (LOCKS[slot & (STRIPES - 1)]) {
+            if (keys[slot] != key) {
+                // 空槽或指纹冲突：新来源接管槽位，旧来源尚未输出的摘要先取出
+                summary = takeSummary(slot, nowMillis);
+                keys[slot] = key;
+                tokens[slot] = Config.THROTTLE_BURST.get();
+                refillNanos[slot] = nowNanos;
+                windowStart[slot] = nowMillis;
+                windowDenials[slot] = 0;
+                suppressed[slot] = 0;
+                sources[slot] = formatSource(ip, address);
+            } else if (nowMillis - windowStart[slot] >= WINDOW_MILLIS) {
+                summary = takeSummary(slot, nowMillis);
+                windowStart[slot] = nowMillis;
+                windowDenials[slot] = 0;
+            }
+
+            if (throttle && !isSharedAddress(ip)) {
+                refill(slot, nowNanos);
+                tokens[slot] = Math.max(0, tokens[slot] - 1);
+            }
+
+            windowDenials[slot]++;
+            logIndividually = threshold <= 0 || windowDenials[slot] <= threshold;
+            if (!logIndividually) {
+                suppressed[slot]++;
+                lastNames[slot] = name;
+                lastUuids[slot] = uuid;
+            }
+        }
+
+        if (summary != null) {
+            emit(summary);
+        }
+        if (!logIndividually) {
+            Metrics.increment("check.deny_suppressed");
+        }
+        return logIndividually;
+    }
+
+    private static void refill(int slot, long nowNanos) {
+        double perNano = Config.THROTTLE_DENIALS_PER_MINUTE.get() / (double) TimeUnit.MINUTES.toNanos(1);
+        long elapsed = nowNanos - refillNanos[slot];
+        if (elapsed > 0) {
+            tokens[slot] = Math.min(Config.THROTTLE_BURST.get(), tokens[slot] + elapsed * perNano);
+            refillNanos[slot] = nowNanos;
+        }
+    }
+
+    /**
+     * 取出槽位中被合并的拒绝并清零，没有时返回 null。调用方必须持有条带锁。
+     */
+    private static Summary takeSummary(int slot, long nowMillis) {
+        if (suppressed[slot] == 0 || sources[slot] == null) {
+            return null;
+        }
+        // 摘要中的次数包含窗口内已逐条记录的部分，便于直接读出该来源的拒绝频率
+        Summary summary = new Summary(sources[slot], lastNames[slot], lastUuids[slot], windowDenials[slot],
+                Math.max(1, (nowMillis - windowStart[slot]) / 1000));
+        suppressed[slot] = 0;
+        lastNames[slot] = null;
+        lastUuids[slot] = null;
+        return summary;
+    }
+
+    private static void sweep(boolean all) {
+        long nowMillis = System.currentTimeMillis();
+        List<Summary> summaries = new ArrayList<>();
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (LOCKS[stripe]) {
+                for (int slot = stripe; slot < SLOTS; slot += STRIPES) {
+                    if (suppressed[slot] == 0 || (!all && nowMillis - windowStart[slot] < WINDOW_MILLIS)) {
+                        continue;
+                    }
+                    Summary summary = takeSummary(slot, nowMillis);
+                    if (summary != null) {
+                        summaries.add(summary);
+                    }
+                    windowStart[slot] = nowMillis;
+                    windowDenials[slot] = 0;
+                }
+            }
+        }
+        for (Summary summary : summaries) {
+            emit(summary);
+        }
+    }
+
+    private static void emit(Summary summary) {
+        LOGGER.warn("IP {} denied {} times in {}s (last attempt: {})",
+                summary.source(), summary.count(), summary.seconds(), summary.name());
+        LogHandler.logDenialSummary(summary.name(), summary.uuid(), summary.source(), summary.count());
+        if (Config.API_LOG_LOGIN_EVENTS.get() && WhitelistManager.isApiAvailable()) {
+            ApiClient.logDenialSummary(summary.name(), summary.uuid(), summary.source(), summary.count());
+        }
+    }
+
+    /**
+     * 是否为本机（127.0.0.0/8、::1）、内网（10/8、172.16/12、192.168/16、100.64/10、fc00::/7）
+     * 或链路本地（169.254/16、fe80::/10）地址。这类地址背后通常有许多玩家，只合并日志，不限流。
+     */
+    static boolean isSharedAddress(String ip) {
+        long[] address = new long[2];
+        if (ip == null || ip.isEmpty() || ip.indexOf('/') >= 0 || ip.indexOf('*') >= 0
+                || IpMatcher.parseRule(ip, address) < 0) {
+            return false;
+        }
+        if (ip.indexOf(':') >= 0) {
+            long hi = address[0];
+            return (hi == 0 && address[1] == 1)
+                    || (hi >>> 57) == 0x7E
+                    || (hi >>> 54) == 0x3FA;
+        }
+        long v = address[0] >>> 32;
+        return (v >>> 24) == 127
+                || (v >>> 24) == 10
+                || (v >>> 20) == 0xAC1
+                || (v >>> 16) == 0xC0A8
+                || (v >>> 22) == 0x191
+                || (v >>> 16) == 0xA9FE;
+    }
+
+    /**
+     * 把地址按配置的前缀长度归并为 64 位指纹，address 中写入掩码后的地址；无法解析时返回 0。
+     */
+    static long sourceKey(String ip, long[] address) {
+        if (ip == null || ip.isEmpty() || IpMatcher.parseRule(ip, address) < 0 || ip.indexOf('/') >= 0
+                || ip.indexOf('*') >= 0) {
+            return 0;
+        }
+        boolean isV6 = ip.indexOf(':') >= 0;
+        int prefix = isV6 ? Config.THROTTLE_IPV6_PREFIX.get() : Config.THROTTLE_IPV4_PREFIX.get();
+        address[0] &= prefix >= 64 ? -1L : prefix == 0 ? 0 : -1L << (64 - prefix);
+        address[1] &= prefix <= 64 ? 0 : prefix >= 128 ? -1L : -1L << (128 - prefix);
+
+        long h = address[0] * 0x9E3779B97F4A7C15L ^ Long.rotateLeft(address[1] * 0xC2B2AE3D27D4EB4FL, 31)
+                ^ (isV6 ? 0x165667B19E3779F9L : 0) ^ prefix;
+        h ^= h >>> 29;
+        return h == 0 ? 1 : h;
+    }
+
+    private static int slotOf(long key) {
+        return (int) (key ^ (key >>> 32)) & (SLOTS - 1);
+    }
+
+    private static String formatSource(String ip, long[] address) {
+        boolean isV6 = ip.indexOf(':') >= 0;
+        int prefix = isV6 ? Config.THROTTLE_IPV6_PREFIX.get() : Config.THROTTLE_IPV4_PREFIX.get();
+        if (prefix == (isV6 ? 128 : 32)) {
+            return ip;
+        }
+        StringBuilder sb = new StringBuilder(40);
+        if (isV6) {
+            for (int g = 0; g < 8; g++) {
+                long half = g < 4 ? address[0] : address[1];
+                int group = (int) (half >>> (48 - (g % 4) * 16)) & 0xFFFF;
+                if (g > 0) {
+                    sb.append(':');
+                }
+                sb.append(Integer.toHexString(group));
+            }
+        } else {
+            long v = address[0] >>> 32;
+            sb.append(v >>> 24).append('.').append((v >>> 16) & 0xFF).append('.')
+                    .append((v >>> 8) & 0xFF).append('.').append(v & 0xFF);
+        }
+        return sb.append('/').append(prefix).toString();
+    }
+}
@@ -0,0 +1,254 @@
+package org.skydream.cwhitelist;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模组内部的轻量指标注册表：计数器与滚动窗口延迟直方图。
+ * <p>
+ * 记录路径只做一次哈希查找与几次原子加法，不加锁、不分配对象，可在登录线程上直接调用。
+ * 指标名称应来自固定集合；计数器与直方图各自最多 {@value #MAX_NAMES} 个，
+ * 超出后新名称的记录被丢弃并计入 {@value #DROPPED_COUNTER}，内存与导出的序列数都有上限。
+ */
+public final class Metrics {
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    static final int MAX_NAMES = 256;
+    static final String DROPPED_COUNTER = "metrics.dropped";
+    private static final LongAdder DROPPED = new LongAdder();
+
+    private Metrics() {
+    }
+
+    public static void increment(String name) {
+        LongAdder adder = COUNTERS.get(name);
+        if (adder == null) {
+            if (COUNTERS.size() >= MAX_NAMES) {
+                DROPPED.increment();
+                return;
+            }
+            adder = COUNTERS.computeIfAbsent(name, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    public static long count(String name) {
+        if (name.equals(DROPPED_COUNTER)) {
+            return DROPPED.sum();
+        }
+        LongAdder adder = COUNTERS.get(name);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public static void recordNanos(String name, long nanos) {
+        Histogram histogram = HISTOGRAMS.get(name);
+        if (histogram == null) {
+            if (HISTOGRAMS.size() >= MAX_NAMES) {
+                DROPPED.increment();
+                return;
+            }
+            histogram = HISTOGRAMS.computeIfAbsent(name, k -> new Histogram());
+        }
+        histogram.record(nanos, System.currentTimeMillis());
+    }
+
+    /**
+     * 返回指定名称的直方图，尚未记录过时返回 null。
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.get(name);
+    }
+
+    /**
+     * 返回按名称排序的计数器快照。
+     */
+    public static Map<String, Long> counters() {
+        Map<String, Long> result = new TreeMap<>();
+        COUNTERS.forEach((name, adder) -> result.put(name, adder.sum()));
+        long dropped = DROPPED.sum();
+        if (dropped > 0) {
+            result.put(DROPPED_COUNTER, dropped);
+        }
+        return result;
+    }
+
+    /**
+     * 返回按名称排序的直方图。
+     */
+    public static Map<String, Histogram> histograms() {
+        return new TreeMap<>(HISTOGRAMS);
+    }
+
+    /**
+     * 滚动窗口延迟直方图。
+     * <p>
+     * 时间被划分为 10 秒一格，共保留 60 格（10 分钟）；每格是一组对数分桶计数
+     * （每个 2 的幂区间再细分 4 桶，相对误差约 19%），覆盖 1 微秒到约 1 分钟。
+     * 查询时合并窗口内各格的计数再计算分位数。格子过期后由下一次写入原地清零复用。
+     * 另外保留一份自启动以来的累计计数与总耗时，供 Prometheus 导出使用。
+     */
+    public static final class Histogram {
+        static final long SLOT_MILLIS = 10_000;
+        static final int SLOTS = 60;
+
+        // 以微秒为单位：桶 0 为 <1µs，其后每个 2 的幂区间 4 个子桶，共 26 个区间（约 67 秒）
+        private static final int SUB_BUCKETS = 4;
+        private static final int MAGNITUDES = 26;
+        static final int BUCKETS = 1 + MAGNITUDES * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(SLOTS * BUCKETS);
+        private final AtomicLongArray slotEpochs = new AtomicLongArray(SLOTS);
+        private final AtomicLongArray totals = new AtomicLongArray(BUCKETS);
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos, long nowMillis) {
+            long epoch = nowMillis / SLOT_MILLIS;
+            int slot = (int) (epoch % SLOTS);
+            long slotEpoch = slotEpochs.get(slot);
+            if (slotEpoch != epoch && slotEpochs.compareAndSet(slot, slotEpoch, epoch)) {
+                // 赢得 CAS 的线程清空过期格子；并发写入的少量计数可能被一同清除，统计上可以接受
+                int base = slot * BUCKETS;
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts.set(base + i, 0);
+                }
+            }
+            int bucket = bucketOf(nanos);
+            counts.incrementAndGet(slot * BUCKETS + bucket);
+            totals.incrementAndGet(bucket);
+            totalNanos.add(nanos);
+        }
+
+        static int bucketOf(long nanos) {
+            long micros = nanos / 1000;
+            if (micros < 1) {
+                return 0;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+            if (magnitude >= MAGNITUDES) {
+                return BUCKETS - 1;
+            }
+            // 取最高位之后的两位作为子桶
+            int sub = magnitude >= 2
+                    ? (int) (micros >>> (magnitude - 2)) & (SUB_BUCKETS - 1)
+                    : (int) (micros << (2 - magnitude)) & (SUB_BUCKETS - 1);
+            return 1 + magnitude * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * 桶的上界（纳秒），作为落在该桶内数值的估计。
+         */
+        static long upperBoundNanos(int bucket) {
+            if (bucket == 0) {
+                return 1000;
+            }
+            int magnitude = (bucket - 1) / SUB_BUCKETS;
+            int sub = (bucket - 1) % SUB_BUCKETS;
+            long lower = (1L << magnitude) + ((long) sub << magnitude) / SUB_BUCKETS;
+            long width = Math.max(1, (1L << magnitude) / SUB_BUCKETS);
+            return (lower + width) * 1000;
+        }
+
+        /**
+         * 合并最近 windowMillis 内的计数。
+         */
+        public Window window(long windowMillis) {
+            long nowEpoch = System.currentTimeMillis() / SLOT_MILLIS;
+            long oldestEpoch = nowEpoch - Math.max(1, Math.min(SLOTS, windowMillis / SLOT_MILLIS)) + 1;
+            long[] merged = new long[BUCKETS];
+            long total = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                long epoch = slotEpochs.get(slot);
+                if (epoch < oldestEpoch || epoch > nowEpoch) {
+                    continue;
+                }
+                int base = slot * BUCKETS;
+                for (int i = 0; i < BUCKETS; i++) {
+                    long c = counts.get(base + i);
+                    merged[i] += c;
+                    total += c;
+                }
+            }
+            return new Window(merged, total);
+        }
+
+        /**
+         * 自启动以来的累计分布，计数单调递增。
+         */
+        public Window cumulative() {
+            long[] copy = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = totals.get(i);
+                total += copy[i];
+            }
+            return new Window(copy, total);
+        }
+
+        /** 自启动以来记录的总耗时（纳秒） */
+        public long totalNanos() {
+            return totalNanos.sum();
+        }
+    }
+
+    /**
+     * 某个时间窗口内合并后的分布。
+     */
+    public static final class Window {
+        private final long[] buckets;
+        private final long count;
+
+        Window(long[] buckets, long count) {
+            this.buckets = buckets;
+            this.count = count;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        /**
+         * 落在 bucket 及其之前各桶中的计数之和。
+         */
+        long countUpTo(int bucket) {
+            long sum = 0;
+            for (int i = 0; i <= bucket && i < buckets.length; i++) {
+                sum += buckets[i];
+            }
+            return sum;
+        }
+
+        /**
+         * 估计分位数（纳秒），无数据时返回 0。
+         */
+        public long percentileNanos(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Histogram.upperBoundNanos(i);
+                }
+            }
+            return Histogram.upperBoundNanos(buckets.length - 1);
+        }
+    }
+
+    /**
+     * 把纳秒格式化为便于阅读的字符串。
+     */
+    public static String formatNanos(long nanos) {
+        if (nanos < 1_000_000) {
+            return String.format("%.0fµs", nanos / 1_000.0);
+        }
+        if (nanos < 1_000_000_000) {
+            return String.format("%.1fms", nanos / 1_000_000.0);
+        }
+        return String.format("%.2fs", nanos / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,347 @@
+package org.skydream.cwhitelist;
+
+import com.mojang.logging.LogUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 以 Prometheus 文本格式（或按 Accept 头协商为 OpenMetrics）导出 {@link Metrics} 中的指标。
+ * <p>
+ * 使用 JDK 自带的 {@link HttpServer}，仅在配置中启用时监听，默认只绑定本机地址。
+ * 每次抓取时现场渲染，不缓存；渲染只读取计数器与直方图，不会阻塞登录检查。
+ */
+public final class MetricsExporter {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String CONTENT_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String CONTENT_TYPE_OPENMETRICS = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static HttpServer server;
+    private static ExecutorService executor;
+
+    private MetricsExporter() {
+    }
+
+    public static synchronized void start() {
+        if (server != null || !Config.METRICS_ENABLED.get()) {
+            return;
+        }
+
+        String bindAddress = Config.METRICS_BIND_ADDRESS.get();
+        int port = Config.METRICS_PORT.get();
+        try {
+            server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Failed to start metrics endpoint on {}:{}", bindAddress, port, e);
+            server = null;
+            return;
+        }
+
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "CWhitelist-Metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", MetricsExporter::handle);
+        server.start();
+        LOGGER.info("Metrics endpoint listening on http://{}:{}/metrics", bindAddress, port);
+    }
+
+    public static synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean openMetrics = accept != null && accept.contains("application/openmetrics-text");
+            byte[] body = render(openMetrics).getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type",
+                    openMetrics ? CONTENT_TYPE_OPENMETRICS : CONTENT_TYPE_PROMETHEUS);
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed to serve metrics request", e);
+        }
+    }
+
+    static String render(boolean openMetrics) {
+        Exposition out = new Exposition(openMetrics);
+        Map<String, Long> counters = Metrics.counters();
+        Map<String, Metrics.Histogram> histograms = Metrics.histograms();
+
+        // 白名单检查
+        out.family("cwhitelist_check_decisions", "counter", "Whitelist check decisions by result and matching check type");
+        counters.forEach((name, value) -> {
+            if (name.startsWith("check.allowed.")) {
+                out.sample("_total", value, "result", "allowed", "check_type", name.substring("check.allowed.".length()));
+            }
+        });
+        out.sample("_total", counters.getOrDefault("check.denied", 0L), "result", "denied", "check_type", "none");
+
+        out.family("cwhitelist_check_throttled", "counter", "Login attempts rejected by the per-address throttle before the whitelist check");
+        out.sample("_total", counters.getOrDefault("check.throttled", 0L));
+        out.family("cwhitelist_check_denials_suppressed", "counter", "Denials folded into per-address summaries instead of being logged individually");
+        out.sample("_total", counters.getOrDefault("check.deny_suppressed", 0L));
+
+        out.family("cwhitelist_check_cache", "counter", "Login check decision cache lookups by result");
+        out.sample("_total", counters.getOrDefault("check.cache_hit", 0L), "result", "hit");
+        out.sample("_total", counters.getOrDefault("check.cache_miss", 0L), "result", "miss");
+
+        Metrics.Histogram checkLatency = histograms.get("check.isAllowed");
+        if (checkLatency != null) {
+            out.family("cwhitelist_check_duration_seconds", "histogram", "Time spent in WhitelistManager.isAllowed");
+            out.histogram(checkLatency);
+        }
+
+        out.family("cwhitelist_entries", "gauge", "Number of entries in the active whitelist");
+        out.sample("", WhitelistManager.getEntryCount());
+
+        // API 请求
+        List<Map.Entry<String, Metrics.Histogram>> endpoints = new ArrayList<>();
+        histograms.forEach((name, histogram) -> {
+            if (name.startsWith("api:")) {
+                endpoints.add(Map.entry(name.substring(4), histogram));
+            }
+        });
+        if (!endpoints.isEmpty()) {
+            out.family("cwhitelist_api_requests", "counter", "API requests by endpoint and outcome");
+            for (Map.Entry<String, Metrics.Histogram> endpoint : endpoints) {
+                long total = endpoint.getValue().cumulative().count();
+                long failed = counters.getOrDefault("api.failed." + endpoint.getKey(), 0L);
+                // 耗时与失败计数不在同一个原子操作中记录，抓取时可能短暂不一致
+                out.sample("_total", Math.max(0, total - failed), "endpoint", endpoint.getKey(), "outcome", "success");
+                out.sample("_total", failed, "endpoint", endpoint.getKey(), "outcome", "failure");
+            }
+
+            out.family("cwhitelist_api_request_duration_seconds", "histogram", "API request duration by endpoint");
+            for (Map.Entry<String, Metrics.Histogram> endpoint : endpoints) {
+                out.histogram(endpoint.getValue(), "endpoint", endpoint.getKey());
+            }
+
+            // 对冲与重试只发生在同步与 Token 验证上，只输出出现过的接口
+            endpointCounter(out, counters, endpoints, "cwhitelist_api_hedged_requests", "api.hedged.",
+                    "Hedged duplicate API requests sent, by endpoint");
+            endpointCounter(out, counters, endpoints, "cwhitelist_api_hedge_wins", "api.hedge_won.",
+                    "Hedged API requests that answered before the original, by endpoint");
+            endpointCounter(out, counters, endpoints, "cwhitelist_api_retries", "api.retried.",
+                    "API requests retried within their deadline, by endpoint");
+        }
+
+        out.family("cwhitelist_api_sync_cache", "counter", "Whitelist sync cache lookups by result");
+        out.sample("_total", counters.getOrDefault("api.sync.cache_hit", 0L), "result", "hit");
+        out.sample("_total", counters.getOrDefault("api.sync.cache_miss", 0L), "result", "miss");
+        out.sample("_total", counters.getOrDefault("api.sync.cache_stale", 0L), "result", "stale");
+        out.family("cwhitelist_api_sync_stale_if_error", "counter", "Failed whitelist syncs answered with the last successfully synced list");
+        out.sample("_total", counters.getOrDefault("api.sync.stale_if_error", 0L));
+        out.family("cwhitelist_api_sync_not_modified", "counter", "Whitelist syncs answered with 304 Not Modified and served from the last full sync");
+        out.sample("_total", counters.getOrDefault("api.sync.not_modified", 0L));
+
+        out.family("cwhitelist_api_enabled", "gauge", "Whether the API integration is active (1) or not (0)");
+        out.sample("", ApiClient.isEnabled() ? 1 : 0);
+
+        out.family("cwhitelist_api_heartbeat_healthy", "gauge", "Whether the last API heartbeat succeeded (1) or failed (0)");
+        out.sample("", ApiClient.isHeartbeatHealthy() ? 1 : 0);
+
+        CircuitBreaker breaker = ApiClient.getCircuitBreaker();
+        if (breaker != null) {
+            out.family("cwhitelist_api_circuit_state", "gauge", "API circuit breaker state: 0 closed, 1 open, 2 half-open");
+            out.sample("", breaker.getState().ordinal());
+            out.family("cwhitelist_api_circuit_rejected", "counter", "API calls rejected while the circuit breaker was open");
+            out.sample("_total", breaker.getRejectedCount());
+        }
+
+        Metrics.Histogram heartbeat = histograms.get("api.heartbeat");
+        if (heartbeat != null) {
+            out.family("cwhitelist_api_heartbeat_duration_seconds", "histogram", "API heartbeat round-trip time");
+            out.histogram(heartbeat);
+        }
+
+        Instant lastSync = ApiClient.getLastSyncTime();
+        if (!Instant.MIN.equals(lastSync)) {
+            out.family("cwhitelist_api_last_sync_age_seconds", "gauge", "Seconds since the last successful whitelist sync");
+            out.sample("", Duration.between(lastSync, Instant.now()).toMillis() / 1000.0);
+        }
+
+        // 事件与请求队列
+        out.family("cwhitelist_event_queue_depth", "gauge", "Login/logout events waiting to be sent");
+        out.sample("", EventBatcher.getQueuedCount());
+        out.family("cwhitelist_events_sent", "counter", "Login/logout events delivered to the API");
+        out.sample("_total", EventBatcher.getSentCount());
+        out.family("cwhitelist_events_deferred", "counter", "Login/logout events written to the spill file instead of being sent");
+        out.sample("_total", EventBatcher.getDeferredCount());
+        out.family("cwhitelist_events_dropped", "counter", "Login/logout events dropped because the buffer was full");
+        out.sample("_total", EventBatcher.getDroppedCount());
+        out.family("cwhitelist_metrics_dropped", "counter", "Metric samples dropped because the metric name limit was reached");
+        out.sample("_total", counters.getOrDefault(Metrics.DROPPED_COUNTER, 0L));
+
+        RequestDispatcher dispatcher = ApiClient.getDispatcher();
+        if (dispatcher != null) {
+            out.family("cwhitelist_request_queue_depth", "gauge", "Background API requests waiting in the queue");
+            out.sample("", dispatcher.getQueueDepth());
+            out.family("cwhitelist_request_queue_capacity", "gauge", "Capacity of the background API request queue");
+            out.sample("", dispatcher.getCapacity());
+            out.family("cwhitelist_requests_in_flight", "gauge", "Background API requests currently in flight");
+            out.sample("", dispatcher.getInFlight());
+            out.family("cwhitelist_requests_spilled_pending", "gauge", "Background API requests spilled to disk and not yet resent");
+            out.sample("", dispatcher.getSpilledPending());
+            out.family("cwhitelist_requests_dispatched", "counter", "Background API requests taken from the queue");
+            out.sample("_total", dispatcher.getDispatchedCount());
+            out.family("cwhitelist_requests_dropped", "counter", "Background API requests dropped by the overflow policy");
+            out.sample("_total", dispatcher.getDroppedCount());
+            out.family("cwhitelist_requests_spilled", "counter", "Background API requests written to the spill file");
+            out.sample("_total", dispatcher.getSpilledCount());
+        }
+
+        out.family("cwhitelist_log_records_dropped", "counter", "Local log records dropped because the writer fell behind");
+        out.sample("_total", LogHandler.getDroppedCount());
+
+        return out.finish();
+    }
+
+    /**
+     * 输出按接口分类的计数器，只包含出现过的接口；都没有出现时整个指标族省略。
+     */
+    private static void endpointCounter(Exposition out, Map<String, Long> counters,
+                                        List<Map.Entry<String, Metrics.Histogram>> endpoints,
+                                        String family, String prefix, String help) {
+        boolean first = true;
+        for (Map.Entry<String, Metrics.Histogram> endpoint : endpoints) {
+            Long value = counters.get(prefix + endpoint.getKey());
+            if (value == null) {
+                continue;
+            }
+            if (first) {
+                out.family(family, "counter", help);
+                first = false;
+            }
+            out.sample("_total", value, "endpoint", endpoint.getKey());
+        }
+    }
+
+    /**
+     * 文本格式的拼装。两种格式的差别只在计数器的 TYPE 行名称与结尾的 EOF 标记。
+     */
+    private static final class Exposition {
+        private final StringBuilder sb = new StringBuilder(8192);
+        private final boolean openMetrics;
+        private String family;
+
+        Exposition(boolean openMetrics) {
+            this.openMetrics = openMetrics;
+        }
+
+        void family(String name, String type, String help) {
+            family = name;
+            // Prometheus 0.0.4 中计数器的元数据使用带 _total 后缀的样本名
+            String metaName = !openMetrics && type.equals("counter") ? name + "_total" : name;
+            sb.append("# HELP ").append(metaName).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(metaName).append(' ').append(type).append('\n');
+        }
+
+        void sample(String suffix, double value, String... labels) {
+            sb.append(family).append(suffix);
+            appendLabels(labels, null);
+            sb.append(' ').append(formatValue(value)).append('\n');
+        }
+
+        /**
+         * 以 2 的幂微秒为边界输出累计桶（每个量级合并原直方图的 4 个子桶）。
+         */
+        void histogram(Metrics.Histogram histogram, String... labels) {
+            Metrics.Window total = histogram.cumulative();
+            bucket(labels, "0.000001", total.countUpTo(0));
+            for (int magnitude = 0; magnitude < 25; magnitude++) {
+                long upperMicros = 1L << (magnitude + 1);
+                String le = BigDecimal.valueOf(upperMicros).movePointLeft(6).stripTrailingZeros().toPlainString();
+                bucket(labels, le, total.countUpTo(magnitude * 4 + 4));
+            }
+            bucket(labels, "+Inf", total.count());
+
+            sb.append(family).append("_count");
+            appendLabels(labels, null);
+            sb.append(' ').append(total.count()).append('\n');
+            sb.append(family).append("_sum");
+            appendLabels(labels, null);
+            sb.append(' ').append(formatValue(histogram.totalNanos() / 1e9)).append('\n');
+        }
+
+        private void bucket(String[] labels, String le, long count) {
+            sb.append(family).append("_bucket");
+            appendLabels(labels, le);
+            sb.append(' ').append(count).append('\n');
+        }
+
+        private void appendLabels(String[] labels, String le) {
+            if (labels.length == 0 && le == null) {
+                return;
+            }
+            sb.append('{');
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+            }
+            if (le != null) {
+                if (labels.length > 0) {
+                    sb.append(',');
+                }
+                sb.append("le=\"").append(le).append('"');
+            }
+            sb.append('}');
+        }
+
+        String finish() {
+            if (openMetrics) {
+                sb.append("# EOF\n");
+            }
+            return sb.toString();
+        }
+
+        private static String formatValue(double value) {
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            return Double.toString(value);
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package org.skydream.cwhitelist;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * 有界的 API 请求分发器。
+ * <p>
+ * 请求进入固定容量的队列，由单个消费线程按顺序取出，并通过信号量限制同时在途的请求数。
+ * 队列满时按 {@link OverflowPolicy} 处理；SPILL 策略会把请求追加到磁盘文件，
+ * 队列空闲时再读回重发，服务器关闭时未发出的请求也会写入该文件，下次启动继续发送。
+ * 放行条件（例如熔断器）不满足时暂停出队，请求留在队列中等待。
+ */
+public class RequestDispatcher {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Gson GSON = new Gson();
+    private static final long POLL_INTERVAL_MILLIS = 500;
+
+    public enum OverflowPolicy {
+        /** 丢弃队列中最早的请求，为新请求腾出位置 */
+        DROP_OLDEST,
+        /** 丢弃新提交的请求 */
+        DROP_NEWEST,
+        /** 把新请求写入磁盘，稍后重发 */
+        SPILL
+    }
+
+    static final String CONTENT_TYPE_JSON = "application/json";
+
+    /**
+     * 请求没有发出，而是写入了溢出文件，稍后（可能在下次启动后）重发。
+     * 调用方不应把它当作已发送，也不应当作失败重试。
+     */
+    public static class SpilledException extends IOException {
+        public SpilledException(String endpoint) {
+            super("API request to " + endpoint + " was saved to disk and will be sent later");
+        }
+    }
+
+    /**
+     * 一个排队中的请求。只保存可序列化的描述，以便溢出到磁盘。
+     * 请求体以字节保存，contentType 为 JSON 或协商出的二进制格式。
+     */
+    record Request(String endpoint, String method, String contentType, byte[] body, long enqueuedAt,
+                   CompletableFuture<String> result) {
+    }
+
+    private final BlockingQueue<Request> queue;
+    private final int capacity;
+    private final Semaphore permits;
+    private final OverflowPolicy policy;
+    private final Path spillPath;
+    private final BooleanSupplier gate;
+    private final Function<Request, CompletableFuture<String>> sender;
+    private final Object spillLock = new Object();
+
+    private volatile boolean running = false;
+    private Thread consumer;
+
+    // 指标
+    private final LongAdder dispatched = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile long spilledPending = 0;
+
+    public RequestDispatcher(int capacity, int concurrency, OverflowPolicy policy, Path spillPath,
+                             BooleanSupplier gate, Function<Request, CompletableFuture<String>> sender) {
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.permits = new Semaphore(concurrency);
+        this.policy = policy;
+        this.spillPath = spillPath;
+        this.gate = gate;
+        this.sender = sender;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+
+        if (policy == OverflowPolicy.SPILL) {
+            spilledPending = countSpilled();
+            if (spilledPending > 0) {
+                LOGGER.info("Found {} spilled API requests from a previous run, they will be resent", spilledPending);
+            }
+        }
+
+        consumer = new Thread(this::consume, "CWhitelist-RequestDispatcher");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * 停止消费线程。SPILL 策略下仍在队列中的请求会写入磁盘，其余策略直接丢弃。
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        consumer.interrupt();
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Request> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (remaining.isEmpty()) {
+            return;
+        }
+
+        if (policy == OverflowPolicy.SPILL) {
+            for (Request request : remaining) {
+                spill(request);
+            }
+            LOGGER.info("Spilled {} pending API requests to {}", remaining.size(), spillPath);
+        } else {
+            for (Request request : remaining) {
+                reject(request);
+            }
+            LOGGER.warn("Discarded {} pending API requests on shutdown", remaining.size());
+        }
+    }
+
+    public CompletableFuture<String> submit(String endpoint, String method, String body) {
+        return submit(endpoint, method, CONTENT_TYPE_JSON, body == null ? null : body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public CompletableFuture<String> submit(String endpoint, String method, String contentType, byte[] body) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Request request = new Request(endpoint, method, contentType, body, System.nanoTime(), result);
+
+        if (!running) {
+            reject(request);
+            return result;
+        }
+
+        // 磁盘上还有积压时新请求也排到磁盘，保持发送顺序
+        if (policy == OverflowPolicy.SPILL && spilledPending > 0) {
+            spill(request);
+            return result;
+        }
+
+        if (queue.offer(request)) {
+            return result;
+        }
+
+        switch (policy) {
+            case DROP_OLDEST -> {
+                while (!queue.offer(request)) {
+                    Request oldest = queue.poll();
+                    if (oldest != null) {
+                        reject(oldest);
+                    }
+                }
+            }
+            case DROP_NEWEST -> reject(request);
+            case SPILL -> spill(request);
+        }
+        return result;
+    }
+
+    private void consume() {
+        while (running) {
+            try {
+                permits.acquire();
+                if (!gate.getAsBoolean()) {
+                    permits.release();
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                    continue;
+                }
+                Request request = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (request == null) {
+                    permits.release();
+                    refillFromSpill();
+                    continue;
+                }
+                dispatch(request);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void dispatch(Request request) {
+        long waited = System.nanoTime() - request.enqueuedAt();
+        dispatched.increment();
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        inFlight.incrementAndGet();
+        CompletableFuture<String> future;
+        try {
+            future = sender.apply(request);
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        future.whenComplete((response, e) -> {
+            inFlight.decrementAndGet();
+            permits.release();
+            if (e != null) {
+                request.result().completeExceptionally(e);
+            } else {
+                request.result().complete(response);
+            }
+        });
+    }
+
+    private void reject(Request request) {
+        dropped.increment();
+        request.result().completeExceptionally(
+                new RejectedExecutionException("API request queue is full, dropped " + request.endpoint()));
+    }
+
+    /**
+     * 追加到溢出文件，返回的 future 以 {@link SpilledException} 完成：请求此时尚未发出，
+     * 读回后重发的结果不再通知原调用方。
+     * JSON 请求体按原文保存，其他格式以 Base64 保存并记录 content_type。
+     */
+    private void spill(Request request) {
+        JsonObject json = new JsonObject();
+        json.addProperty("endpoint", request.endpoint());
+        json.addProperty("method", request.method());
+        if (request.body() == null) {
+            json.add("body", JsonNull.INSTANCE);
+        } else if (request.contentType().equals(CONTENT_TYPE_JSON)) {
+            json.addProperty("body", new String(request.body(), StandardCharsets.UTF_8));
+        } else {
+            json.addProperty("content_type", request.contentType());
+            json.addProperty("body_base64", Base64.getEncoder().encodeToString(request.body()));
+        }
+
+        synchronized (spillLock) {
+            try {
+                Files.createDirectories(spillPath.getParent());
+                Files.writeString(spillPath, GSON.toJson(json) + "\n", StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                spilledPending++;
+                spilled.increment();
+                request.result().completeExceptionally(new SpilledException(request.endpoint()));
+            } catch (IOException e) {
+                LOGGER.error("Failed to spill API request to disk", e);
+                reject(request);
+            }
+        }
+    }
+
+    /**
+     * 队列空闲时从溢出文件读回至多半个队列容量的请求，剩余部分原子地写回文件。
+     * 队列在读回过程中被新请求占满时停止读回，没放进队列的行留在文件中。
+     */
+    private void refillFromSpill() {
+        if (policy != OverflowPolicy.SPILL || spilledPending == 0) {
+            return;
+        }
+
+        synchronized (spillLock) {
+            try {
+                if (!Files.exists(spillPath)) {
+                    spilledPending = 0;
+                    return;
+                }
+
+                List<String> lines = Files.readAllLines(spillPath, StandardCharsets.UTF_8);
+                int limit = Math.min(lines.size(), Math.max(1, capacity / 2));
+                long now = System.nanoTime();
+                int loaded = 0;
+                int take = 0;
+                for (; take < limit; take++) {
+                    String line = lines.get(take);
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    Request request;
+                    try {
+                        JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+                        String contentType = CONTENT_TYPE_JSON;
+                        byte[] body = null;
+                        if (json.has("body_base64")) {
+                            contentType = json.get("content_type").getAsString();
+                            body = Base64.getDecoder().decode(json.get("body_base64").getAsString());
+                        } else if (json.has("body") && !json.get("body").isJsonNull()) {
+                            body = json.get("body").getAsString().getBytes(StandardCharsets.UTF_8);
+                        }
+                        request = new Request(json.get("endpoint").getAsString(),
+                                json.get("method").getAsString(), contentType, body, now, new CompletableFuture<>());
+                    } catch (Exception e) {
+                        LOGGER.warn("Skipping malformed spilled API request: {}", line);
+                        continue;
+                    }
+                    if (!queue.offer(request)) {
+                        break;
+                    }
+                    loaded++;
+                }
+
+                List<String> rest = lines.subList(take, lines.size());
+                if (rest.isEmpty()) {
+                    Files.deleteIfExists(spillPath);
+                } else {
+                    Path tempPath = spillPath.resolveSibling(spillPath.getFileName() + ".tmp");
+                    Files.write(tempPath, rest, StandardCharsets.UTF_8);
+                    Files.move(tempPath, spillPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                spilledPending = rest.size();
+                LOGGER.debug("Reloaded {} spilled API requests, {} remaining on disk", loaded, rest.size());
+            } catch (IOException e) {
+                LOGGER.error("Failed to reload spilled API requests", e);
+            }
+        }
+    }
+
+    private long countSpilled() {
+        try {
+            if (!Files.exists(spillPath)) {
+                return 0;
+            }
+            try (var lines = Files.lines(spillPath, StandardCharsets.UTF_8)) {
+                return lines.filter(line -> !line.isBlank()).count();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to read spilled API requests", e);
+            return 0;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getSpilledPending() {
+        return spilledPending;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getSpilledCount() {
+        return spilled.sum();
+    }
+
+    public long getDispatchedCount() {
+        return dispatched.sum();
+    }
+
+    /** 已出队请求的平均排队时间（毫秒） */
+    public double getAverageWaitMillis() {
+        long count = dispatched.sum();
+        return count == 0 ? 0 : totalWaitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    /** 已出队请求的最长排队时间（毫秒） */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+}
@@ -7,11 +7,19 @@ import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.MutableComponent;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 
 public class WhitelistCommand {
+    // 导出文件所在的目录（相对服务器目录）
+    private static final String EXPORT_DIRECTORY = "cwhitelist_exports";
+
     public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
         dispatcher.register(Commands.literal("cwhitelist")
                 .requires(source -> source.hasPermission(4))
@@ -61,6 +69,25 @@ public class WhitelistCommand {
                                 )
                         )
                 )
+                .then(Commands.literal("stats")
+                        .executes(ctx -> stats(ctx.getSource(), "1m", 60_000))
+                        .then(Commands.literal("1m")
+                                .executes(ctx -> stats(ctx.getSource(), "1m", 60_000)))
+                        .then(Commands.literal("10m")
+                                .executes(ctx -> stats(ctx.getSource(), "10m", 600_000)))
+                )
+                .then(Commands.literal("import")
+                        .then(Commands.argument("file", StringArgumentType.string())
+                                .executes(ctx -> importEntries(ctx.getSource(),
+                                        StringArgumentType.getString(ctx, "file")))
+                        )
+                )
+                .then(Commands.literal("export")
+                        .then(Commands.argument("file", StringArgumentType.string())
+                                .executes(ctx -> exportEntries(ctx.getSource(),
+                                        StringArgumentType.getString(ctx, "file")))
+                        )
+                )
                 .then(Commands.literal("api")
                         .requires(source -> source.hasPermission(4))
                         .then(Commands.literal("status")
@@ -229,6 +256,152 @@ public class WhitelistCommand {
         return 1;
     }
 
+    private static int stats(CommandSourceStack source, String label, long windowMillis) {
+        var player = source.getPlayer();
+        MutableComponent message = Cwhitelist.translate(player, "cwhitelist.stats.header", label).copy();
+
+        // 延迟分位数
+        Map<String, Metrics.Histogram> histograms = Metrics.histograms();
+        if (histograms.isEmpty()) {
+            message.append("\n").append(Cwhitelist.translate(player, "cwhitelist.stats.no_data"));
+        }
+        histograms.forEach((name, histogram) -> {
+            Metrics.Window window = histogram.window(windowMillis);
+            if (window.count() > 0) {
+                message.append("\n").append(Cwhitelist.translate(player, "cwhitelist.stats.latency", name,
+                        Metrics.formatNanos(window.percentileNanos(50)),
+                        Metrics.formatNanos(window.percentileNanos(95)),
+                        Metrics.formatNanos(window.percentileNanos(99)),
+                        window.count()));
+            }
+        });
+
+        // 检查结果与API计数（自启动以来）
+        Map<String, Long> counters = Metrics.counters();
+        StringBuilder checks = new StringBuilder();
+        StringBuilder failures = new StringBuilder();
+        counters.forEach((name, value) -> {
+            if (name.startsWith("check.")) {
+                checks.append(checks.isEmpty() ? "" : ", ").append(name.substring(6)).append('=').append(value);
+            } else if (name.startsWith("api.failed.")) {
+                failures.append(failures.isEmpty() ? "" : ", ").append(name.substring(11)).append('=').append(value);
+            }
+        });
+        if (!checks.isEmpty()) {
+            message.append("\n").append(Cwhitelist.translate(player, "cwhitelist.stats.checks", checks));
+        }
+        if (!failures.isEmpty()) {
+            message.append("\n").append(Cwhitelist.translate(player, "cwhitelist.stats.api_failures", failures));
+        }
+
+        // 过期但立即返回（后台刷新）的查询同样没有等待网络，计为命中
+        long hits = Metrics.count("api.sync.cache_hit") + Metrics.count("api.sync.cache_stale");
+        long lookups = hits + Metrics.count("api.sync.cache_miss");
+        if (lookups > 0) {
+            message.append("\n").append(Cwhitelist.translate(player, "cwhitelist.stats.cache",
+                    String.format("%.1f%%", hits * 100.0 / lookups), hits, lookups));
+        }
+
+        CircuitBreaker breaker = ApiClient.getCircuitBreaker();
+        if (breaker != null) {
+            message.append("\n").append(Cwhitelist.translate(player, "cwhitelist.stats.circuit",
+                    breaker.getState(), breaker.getRejectedCount(),
+                    String.format("%.1fs", breaker.getRetryDelayMillis() / 1000.0)));
+        }
+
+        RequestDispatcher dispatcher = ApiClient.getDispatcher();
+        if (dispatcher != null) {
+            message.append("\n").append(Cwhitelist.translate(player, "cwhitelist.stats.queue",
+                    dispatcher.getQueueDepth(), dispatcher.getCapacity(), dispatcher.getInFlight(),
+                    dispatcher.getDroppedCount(), String.format("%.1fms", dispatcher.getAverageWaitMillis())));
+            message.append("\n").append(Cwhitelist.translate(player, "cwhitelist.stats.events",
+                    EventBatcher.getQueuedCount(), EventBatcher.getSentCount(), EventBatcher.getDroppedCount()));
+        }
+
+        source.sendSuccess(() -> message, false);
+        return 1;
+    }
+
+    /**
+     * 将命令参数解析为 root 下的路径，不允许指向 root 之外。
+     */
+    private static Path resolveTransferPath(Path root, String file) {
+        Path base = root.toAbsolutePath().normalize();
+        Path path = base.resolve(file).normalize();
+        return path.startsWith(base) && !path.equals(base) ? path : null;
+    }
+
+    private static int importEntries(CommandSourceStack source, String file) {
+        Path path = resolveTransferPath(source.getServer().getServerDirectory(), file);
+        if (path == null) {
+            source.sendFailure(Cwhitelist.translate(source.getPlayer(),
+                    "cwhitelist.transfer.invalid_path", file));
+            return 0;
+        }
+
+        source.sendSuccess(() -> Cwhitelist.translate(source.getPlayer(),
+                "cwhitelist.import.starting", file), false);
+
+        // 读取与解析都在服务器线程之外进行，只把消息发回服务器线程；
+        // 等待 API 上传时不占用线程，上传结果到达后再继续
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return WhitelistTransfer.parse(path, percent ->
+                        source.getServer().execute(() -> source.sendSuccess(() -> Cwhitelist.translate(
+                                source.getPlayer(), "cwhitelist.import.progress", percent), false)));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).thenCompose(result -> WhitelistManager.addEntries(result.entries)
+                .orTimeout(60, TimeUnit.SECONDS)
+                .thenAccept(added -> {
+                    int existing = result.entries.size() - added.size();
+                    source.getServer().execute(() -> {
+                        source.sendSuccess(() -> Cwhitelist.translate(source.getPlayer(),
+                                "cwhitelist.import.success", added.size(), existing, result.duplicates,
+                                result.invalid), true);
+                        if (!added.isEmpty()) {
+                            source.sendSuccess(() -> Cwhitelist.translate(source.getPlayer(),
+                                    WhitelistManager.isUsingApi() ? "cwhitelist.info.added_to_api"
+                                            : "cwhitelist.info.added_to_local"), false);
+                        }
+                    });
+                })
+        ).exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            source.getServer().execute(() -> source.sendFailure(Cwhitelist.translate(source.getPlayer(),
+                    "cwhitelist.import.failed", cause.getMessage())));
+            return null;
+        });
+
+        return 1;
+    }
+
+    private static int exportEntries(CommandSourceStack source, String file) {
+        // 导出只写入专用目录，不能覆盖服务器目录中的其他文件
+        Path path = resolveTransferPath(source.getServer().getServerDirectory().resolve(EXPORT_DIRECTORY), file);
+        if (path == null) {
+            source.sendFailure(Cwhitelist.translate(source.getPlayer(),
+                    "cwhitelist.transfer.invalid_path", file));
+            return 0;
+        }
+
+        // 快照是不可变的，可直接在后台线程序列化
+        List<WhitelistManager.WhitelistEntry> entries = WhitelistManager.getEntries();
+        CompletableFuture.runAsync(() -> {
+            try {
+                WhitelistTransfer.export(path, entries);
+                source.getServer().execute(() -> source.sendSuccess(() -> Cwhitelist.translate(source.getPlayer(),
+                        "cwhitelist.export.success", entries.size(), EXPORT_DIRECTORY + "/" + file), true));
+            } catch (Exception e) {
+                source.getServer().execute(() -> source.sendFailure(Cwhitelist.translate(source.getPlayer(),
+                        "cwhitelist.export.failed", e.getMessage())));
+            }
+        });
+
+        return 1;
+    }
+
     private static int apiStatus(CommandSourceStack source) {
         if (!Config.ENABLE_API.get()) {
             source.sendFailure(Cwhitelist.translate(source.getPlayer(),"cwhitelist.api.disabled"));
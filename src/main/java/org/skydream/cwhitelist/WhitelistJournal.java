@@ -0,0 +1,345 @@
+package org.skydream.cwhitelist;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 白名单的追加式预写日志。
+ * <p>
+ * 每次增删只向日志末尾追加一行 {@code A|R <tab> type <tab> value}，不再重写整个 JSON 文件。
+ * type 与 value 中的反斜杠、制表符和换行符写成 {@code \\}、{@code \t}、{@code \n}、{@code \r}，
+ * 保证每条记录恰好占一行。
+ * 日志记录数超过阈值时由后台线程压缩：先把当前日志轮换为 {@code .old}，
+ * 再把内存快照原子地写回 JSON 文件，成功后删除 {@code .old}。
+ * 启动时先加载 JSON 快照，再依次重放 {@code .old} 与当前日志；重放是幂等的。
+ * <p>
+ * 每次写出 JSON 前先向新日志追加一行 {@code S <tab> 指纹}，记录这些日志所基于的 JSON 内容。
+ * 打开日志时若 JSON 的指纹与日志中记录的都不一致，说明 JSON 在停服期间被手动修改过，
+ * 此时日志中的记录已经过时，直接丢弃。
+ */
+public class WhitelistJournal {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 1000;
+    private static final String SNAPSHOT_MARK = "S";
+
+    public enum FsyncPolicy {
+        /** 每条记录写入后立即 fsync */
+        ALWAYS,
+        /** 后台线程每秒 fsync 一次 */
+        INTERVAL,
+        /** 交给操作系统决定何时落盘 */
+        NEVER
+    }
+
+    /**
+     * 一条日志记录。
+     */
+    public record Record(boolean add, WhitelistManager.WhitelistEntry entry) {
+    }
+
+    private final Path path;
+    private final Path oldPath;
+    private final FsyncPolicy fsyncPolicy;
+    private final int compactThreshold;
+
+    private FileChannel channel;
+    private int recordCount;
+    private boolean dirty;
+    private ScheduledExecutorService maintenanceExecutor;
+
+    public WhitelistJournal(Path path, FsyncPolicy fsyncPolicy, int compactThreshold) {
+        this.path = path;
+        this.oldPath = path.resolveSibling(path.getFileName() + ".old");
+        this.fsyncPolicy = fsyncPolicy;
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * 读取尚未压缩进快照的全部记录（先 .old 再当前日志），并打开日志准备追加。
+     *
+     * @param snapshotFingerprint 当前 JSON 文件的 {@link #fingerprint 指纹}，文件不存在时为 null
+     */
+    public synchronized List<Record> open(String snapshotFingerprint) throws IOException {
+        List<Record> records = new ArrayList<>();
+        Set<String> fingerprints = new HashSet<>();
+        readRecords(oldPath, records, fingerprints);
+        int current = readRecords(path, records, fingerprints);
+
+        if (snapshotFingerprint != null && !fingerprints.isEmpty() && !fingerprints.contains(snapshotFingerprint)) {
+            // JSON 不是日志所基于的那一份，记录已过时；连同旧指纹一起删除，避免新记录接在过时的日志后面
+            if (!records.isEmpty()) {
+                LOGGER.warn("Whitelist file was modified after {} was written, discarding {} stale journal records",
+                        path.getFileName(), records.size());
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            Files.deleteIfExists(oldPath);
+            Files.deleteIfExists(path);
+            records.clear();
+            current = 0;
+            dirty = false;
+        }
+
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        recordCount = current;
+        return records;
+    }
+
+    /**
+     * 启动后台维护线程：按策略定期 fsync，并在记录数超过阈值时调用压缩回调。
+     */
+    public synchronized void startMaintenance(Runnable compaction) {
+        if (maintenanceExecutor != null) {
+            return;
+        }
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "CWhitelist-Journal");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+                    sync();
+                }
+                if (needsCompaction()) {
+                    compaction.run();
+                }
+            } catch (Exception e) {
+                LOGGER.error("Whitelist journal maintenance failed", e);
+            }
+        }, MAINTENANCE_INTERVAL_MILLIS, MAINTENANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void append(boolean add, WhitelistManager.WhitelistEntry entry) throws IOException {
+        if (channel == null) {
+            throw new IOException("Whitelist journal is not open");
+        }
+        String line = (add ? "A" : "R") + '\t' + escape(entry.getType()) + '\t' + escape(entry.getValue()) + '\n';
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        recordCount++;
+
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            channel.force(false);
+        } else {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 记录即将写出的 JSON 快照的指纹。在 {@link #rotate()} 之后、替换 JSON 文件之前调用，
+     * 并立即落盘，保证无论替换是否完成，JSON 都能与 .old 或当前日志中的某个指纹对上。
+     */
+    public synchronized void markSnapshot(String fingerprint) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap((SNAPSHOT_MARK + '\t' + fingerprint + '\n').getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * 是否还有尚未压缩进 JSON 文件的记录。
+     */
+    public synchronized boolean hasPendingRecords() {
+        return recordCount > 0 || Files.exists(oldPath);
+    }
+
+    public synchronized void sync() throws IOException {
+        if (dirty && channel != null) {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    public synchronized boolean needsCompaction() {
+        return recordCount >= compactThreshold;
+    }
+
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * 把当前日志轮换为 .old 并开始新的空日志。调用方应在捕获内存快照的同一临界区内调用，
+     * 保证快照包含了 .old 中的全部记录；快照写盘成功后再调用 {@link #commitRotation()}。
+     */
+    public synchronized void rotate() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        channel.force(false);
+        channel.close();
+        channel = null;
+
+        if (Files.exists(oldPath)) {
+            // 上一次压缩没有完成，.old 中的记录仍未进入快照，把当前日志接在后面
+            Files.write(oldPath, Files.readAllBytes(path), StandardOpenOption.APPEND);
+            Files.delete(path);
+        } else if (Files.exists(path)) {
+            Files.move(path, oldPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        recordCount = 0;
+        dirty = false;
+    }
+
+    public synchronized void commitRotation() throws IOException {
+        Files.deleteIfExists(oldPath);
+    }
+
+    public synchronized void close() {
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdown();
+            maintenanceExecutor = null;
+        }
+        if (channel != null) {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close whitelist journal", e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * JSON 文件内容的指纹：长度加 CRC32。
+     */
+    public static String fingerprint(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return content.length + ":" + Long.toHexString(crc.getValue());
+    }
+
+    private static int readRecords(Path file, List<Record> out, Set<String> fingerprints) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        int count = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.startsWith(SNAPSHOT_MARK + '\t')) {
+                fingerprints.add(line.substring(SNAPSHOT_MARK.length() + 1));
+                continue;
+            }
+            Record record = parseRecord(line);
+            // 崩溃时最后一行可能只写了一半，跳过即可
+            if (record == null) {
+                if (!line.isEmpty()) {
+                    LOGGER.warn("Skipping malformed journal record in {}: {}", file.getFileName(), line);
+                }
+                continue;
+            }
+            out.add(record);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 解析一行日志记录，格式不对或转义非法时返回 null。
+     */
+    static Record parseRecord(String line) {
+        String[] parts = line.split("\t", -1);
+        if (parts.length != 3 || !(parts[0].equals("A") || parts[0].equals("R"))) {
+            return null;
+        }
+        String type = unescape(parts[1]);
+        String value = unescape(parts[2]);
+        if (type == null || value == null) {
+            return null;
+        }
+        return new Record(parts[0].equals("A"), new WhitelistManager.WhitelistEntry(type, value));
+    }
+
+    /**
+     * 转义反斜杠、制表符与换行符，使值不会破坏按行、按制表符分隔的记录格式。
+     */
+    static String escape(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String replacement = switch (c) {
+                case '\\' -> "\\\\";
+                case '\t' -> "\\t";
+                case '\n' -> "\\n";
+                case '\r' -> "\\r";
+                default -> null;
+            };
+            if (replacement == null) {
+                if (sb != null) {
+                    sb.append(c);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(s.length() + 8).append(s, 0, i);
+            }
+            sb.append(replacement);
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    /**
+     * {@link #escape} 的逆操作，遇到未知的转义序列返回 null。
+     */
+    static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (++i == s.length()) {
+                return null;
+            }
+            switch (s.charAt(i)) {
+                case '\\' -> sb.append('\\');
+                case 't' -> sb.append('\t');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                default -> {
+                    return null;
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
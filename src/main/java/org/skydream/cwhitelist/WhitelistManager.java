@@ -3,28 +3,45 @@ package org.skydream.cwhitelist;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.*;
 import io.netty.channel.local.LocalAddress;
+import net.minecraft.core.UUIDUtil;
 import net.minecraft.server.level.ServerPlayer;
 import org.slf4j.Logger;
 import com.mojang.logging.LogUtils;
 
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.skydream.cwhitelist.LogHandler.cleanOldLogs;
 
 public class WhitelistManager {
     private static final Logger LOGGER = LogUtils.getLogger();
     private static final Path WHITELIST_PATH = Paths.get("config/cwhitelist_entries.json");
-    private static final List<WhitelistEntry> entries = new ArrayList<>();
+    private static final Path BINARY_SNAPSHOT_PATH = Paths.get("config/cwhitelist_entries.bin");
+    private static final Path JOURNAL_PATH = Paths.get("config/cwhitelist_entries.journal");
+    private static final Path VERDICT_CACHE_PATH = Paths.get("config/cwhitelist_verdicts.bin");
+    private static final long VERDICT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(24);
     private static final Gson GSON = new Gson();
 
-    private static boolean isLoaded = false;
-    private static boolean useApi = false;
-    private static boolean apiAvailable = false;
+    // 当前发布的白名单快照；读取无需加锁，写入方在 WRITE_LOCK 内构建新快照后整体替换
+    private static volatile Snapshot snapshot = Snapshot.EMPTY;
+    private static final Object WRITE_LOCK = new Object();
+    private static final Object FILE_LOCK = new Object();
+
+    // 增删记录追加到日志，由后台线程定期压缩回 JSON 文件
+    private static WhitelistJournal journal;
+
+    private static volatile boolean isLoaded = false;
+    private static volatile boolean useApi = false;
+    private static volatile boolean apiAvailable = false;
+    // 启动时的 API 加载只允许同时进行一次
+    private static final AtomicBoolean apiLoading = new AtomicBoolean(false);
 
     public static class WhitelistEntry {
         private final String type;
@@ -58,7 +75,282 @@ public class WhitelistManager {
         }
     }
 
-    public static void load() {
+    /**
+     * 按类型划分的白名单索引。
+     * 名称与UUID预先规范化为小写后存入哈希集合，检查为 O(1)；
+     * IP规则（精确地址、CIDR、通配符）存入 {@link IpMatcher} 前缀树。
+     * 索引只在构建时写入，发布后只读，可被多个线程无锁并发读取。
+     * <p>
+     * 派生索引与完整索引共享名称与UUID集合，只另存少量增删；
+     * 前缀树只有在IP规则变化时才重建，代价与IP规则数成正比。
+     */
+    static final class WhitelistIndex {
+        private final Set<String> names;
+        private final Set<String> uuids;
+        private final List<WhitelistEntry> ipEntries;
+        private final IpMatcher ipMatcher;
+        // 相对共享集合的增删，完整索引中为空
+        private final Set<String> addedNames;
+        private final Set<String> removedNames;
+        private final Set<String> addedUuids;
+        private final Set<String> removedUuids;
+
+        WhitelistIndex(Collection<WhitelistEntry> source) {
+            names = new HashSet<>();
+            uuids = new HashSet<>();
+            ipEntries = new ArrayList<>();
+            ipMatcher = new IpMatcher();
+            addedNames = removedNames = addedUuids = removedUuids = Collections.emptySet();
+            for (WhitelistEntry entry : source) {
+                switch (entry.type) {
+                    case "name" -> names.add(normalize(entry.value));
+                    case "uuid" -> uuids.add(normalize(entry.value));
+                    case "ip" -> addIpRule(entry);
+                    default -> { }
+                }
+            }
+        }
+
+        /**
+         * 在完整索引 base 上叠加增删。added 中的条目不在 base 中，removed 中的条目都在 base 中。
+         */
+        WhitelistIndex(WhitelistIndex base, Set<WhitelistEntry> added, Set<WhitelistEntry> removed) {
+            names = base.names;
+            uuids = base.uuids;
+            addedNames = new HashSet<>();
+            removedNames = new HashSet<>();
+            addedUuids = new HashSet<>();
+            removedUuids = new HashSet<>();
+            boolean ipChanged = false;
+            for (WhitelistEntry entry : removed) {
+                switch (entry.type) {
+                    case "name" -> removedNames.add(normalize(entry.value));
+                    case "uuid" -> removedUuids.add(normalize(entry.value));
+                    case "ip" -> ipChanged = true;
+                    default -> { }
+                }
+            }
+            for (WhitelistEntry entry : added) {
+                switch (entry.type) {
+                    case "name" -> addedNames.add(normalize(entry.value));
+                    case "uuid" -> addedUuids.add(normalize(entry.value));
+                    case "ip" -> ipChanged = true;
+                    default -> { }
+                }
+            }
+
+            if (!ipChanged) {
+                ipEntries = base.ipEntries;
+                ipMatcher = base.ipMatcher;
+                return;
+            }
+            ipEntries = new ArrayList<>(base.ipEntries.size() + added.size());
+            ipMatcher = new IpMatcher();
+            for (WhitelistEntry entry : base.ipEntries) {
+                if (!removed.contains(entry)) {
+                    addIpRule(entry);
+                }
+            }
+            for (WhitelistEntry entry : added) {
+                if (entry.type.equals("ip")) {
+                    addIpRule(entry);
+                }
+            }
+        }
+
+        static String normalize(String value) {
+            return value == null ? "" : value.toLowerCase(Locale.ROOT);
+        }
+
+        private void addIpRule(WhitelistEntry entry) {
+            ipEntries.add(entry);
+            if (!ipMatcher.add(entry.value)) {
+                LOGGER.debug("IP rule '{}' is not a prefix, using glob matching", entry.value);
+            }
+        }
+
+        boolean containsName(String name) {
+            String key = normalize(name);
+            return addedNames.contains(key) || (names.contains(key) && !removedNames.contains(key));
+        }
+
+        boolean containsUuid(String uuid) {
+            String key = normalize(uuid);
+            return addedUuids.contains(key) || (uuids.contains(key) && !removedUuids.contains(key));
+        }
+
+        boolean matchesIp(String ip) {
+            return ipMatcher.matches(ip);
+        }
+    }
+
+    /**
+     * 白名单的不可变快照：条目、去重集合与索引一同发布。
+     * 写入方总是构建新快照并通过一次 volatile 写替换，
+     * 读取方拿到的快照在其生命周期内不会变化，不会看到重建到一半的列表。
+     * <p>
+     * 单条增删不复制整个白名单：新快照共享上一次完整构建的条目、集合与索引，
+     * 只另存增删的条目。增删累计超过 max(64, √n) 条时合并为新的完整快照，
+     * 因此连续 n 次增删的总代价约为 O(n√n) 而不是 O(n²)。
+     */
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, Collections.emptyList());
+        private static final int MIN_OVERLAY_SIZE = 64;
+
+        final long version;
+        // 与顺序无关的内容指纹，用于判断持久化的检查结论是否仍适用
+        final long contentHash;
+        final WhitelistIndex index;
+
+        // 最近一次完整构建的结果，被后续派生的快照共享
+        private final List<WhitelistEntry> baseEntries;
+        private final Set<WhitelistEntry> baseSet;
+        private final WhitelistIndex baseIndex;
+        // 相对 baseSet 新增（不在其中）与删除（都在其中）的条目
+        private final Set<WhitelistEntry> added;
+        private final Set<WhitelistEntry> removed;
+        private final int size;
+        // 合并后的条目列表，按需生成
+        private volatile List<WhitelistEntry> entries;
+
+        /**
+         * 构建完整快照。source 为列表、所有条目完整且无重复时直接采用而不复制（例如API流式解析的结果），
+         * 调用方之后不得再修改该列表。
+         */
+        Snapshot(long version, Collection<WhitelistEntry> source) {
+            List<WhitelistEntry> list;
+            if (source instanceof List<WhitelistEntry> sourceList && sourceList.stream().allMatch(Snapshot::isComplete)) {
+                list = sourceList;
+            } else {
+                list = new ArrayList<>(source.size());
+                for (WhitelistEntry entry : source) {
+                    // 跳过文件或API中字段缺失的条目
+                    if (isComplete(entry)) {
+                        list.add(entry);
+                    }
+                }
+            }
+            Set<WhitelistEntry> set = new LinkedHashSet<>(list);
+            if (set.size() != list.size()) {
+                list = new ArrayList<>(set);
+            }
+            long hash = set.size();
+            for (WhitelistEntry entry : set) {
+                hash += mix(entry.hashCode());
+            }
+
+            this.version = version;
+            this.contentHash = hash;
+            this.baseEntries = Collections.unmodifiableList(list);
+            this.baseSet = set;
+            // 以去重后的集合建索引，保证每条规则在前缀树中只计一次
+            this.baseIndex = new WhitelistIndex(set);
+            this.index = baseIndex;
+            this.added = Collections.emptySet();
+            this.removed = Collections.emptySet();
+            this.size = set.size();
+            this.entries = baseEntries;
+        }
+
+        private Snapshot(Snapshot base, long version, long contentHash,
+                         Set<WhitelistEntry> added, Set<WhitelistEntry> removed) {
+            this.version = version;
+            this.contentHash = contentHash;
+            this.baseEntries = base.baseEntries;
+            this.baseSet = base.baseSet;
+            this.baseIndex = base.baseIndex;
+            this.added = added;
+            this.removed = removed;
+            this.size = baseSet.size() - removed.size() + added.size();
+            this.index = new WhitelistIndex(baseIndex, added, removed);
+        }
+
+        /**
+         * 返回先删除 toRemove、再加入 toAdd 之后的新快照，版本号加一。
+         */
+        Snapshot withChanges(Collection<WhitelistEntry> toAdd, Collection<WhitelistEntry> toRemove) {
+            Set<WhitelistEntry> nextAdded = new LinkedHashSet<>(added);
+            Set<WhitelistEntry> nextRemoved = new HashSet<>(removed);
+            long hash = contentHash - size;
+            for (WhitelistEntry entry : toRemove) {
+                if (isComplete(entry)
+                        && (nextAdded.remove(entry) || (baseSet.contains(entry) && nextRemoved.add(entry)))) {
+                    hash -= mix(entry.hashCode());
+                }
+            }
+            for (WhitelistEntry entry : toAdd) {
+                if (isComplete(entry)
+                        && (nextRemoved.remove(entry) || (!baseSet.contains(entry) && nextAdded.add(entry)))) {
+                    hash += mix(entry.hashCode());
+                }
+            }
+
+            if (nextAdded.size() + nextRemoved.size() > Math.max(MIN_OVERLAY_SIZE, (int) Math.sqrt(baseSet.size()))) {
+                return new Snapshot(version + 1, merge(baseEntries, nextAdded, nextRemoved));
+            }
+            int nextSize = baseSet.size() - nextRemoved.size() + nextAdded.size();
+            return new Snapshot(this, version + 1, hash + nextSize, nextAdded, nextRemoved);
+        }
+
+        boolean contains(WhitelistEntry entry) {
+            return added.contains(entry) || (baseSet.contains(entry) && !removed.contains(entry));
+        }
+
+        /**
+         * 返回全部条目（只读列表）。派生快照第一次调用时合并生成，代价为 O(n)。
+         */
+        List<WhitelistEntry> entries() {
+            List<WhitelistEntry> list = entries;
+            if (list == null) {
+                list = Collections.unmodifiableList(merge(baseEntries, added, removed));
+                entries = list;
+            }
+            return list;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean sameEntries(Snapshot other) {
+            if (size != other.size || contentHash != other.contentHash) {
+                return false;
+            }
+            for (WhitelistEntry entry : entries()) {
+                if (!other.contains(entry)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static List<WhitelistEntry> merge(List<WhitelistEntry> base,
+                                                  Set<WhitelistEntry> added, Set<WhitelistEntry> removed) {
+            List<WhitelistEntry> list = new ArrayList<>(base.size() - removed.size() + added.size());
+            for (WhitelistEntry entry : base) {
+                if (!removed.contains(entry)) {
+                    list.add(entry);
+                }
+            }
+            list.addAll(added);
+            return list;
+        }
+
+        private static long mix(int h) {
+            long x = h * 0x9E3779B97F4A7C15L;
+            return x ^ (x >>> 32);
+        }
+
+        private static boolean isComplete(WhitelistEntry entry) {
+            return entry != null && entry.type != null && entry.value != null;
+        }
+    }
+
+    /**
+     * 加载白名单。API 模式下启用预热启动时，先同步加载本地文件（上次同步结果的备份）
+     * 与持久化的检查结论，立即开始服务，再在后台完成 API 同步；同步结果与本地一致时结论继续有效。
+     */
+    public static synchronized void load() {
         if (isLoaded) return;
 
         // 检查是否启用API
@@ -66,10 +358,12 @@ public class WhitelistManager {
 
         cleanOldLogs();
 
+        if (!useApi || Config.WARM_START.get()) {
+            loadFromFile();
+            restoreVerdicts();
+        }
         if (useApi) {
             loadFromApi();
-        } else {
-            loadFromFile();
         }
     }
 
@@ -80,26 +374,47 @@ public class WhitelistManager {
                 saveToFile();
             }
 
-            String json = Files.readString(WHITELIST_PATH);
-            List<WhitelistEntry> loadedEntries = GSON.fromJson(json,
-                    new TypeToken<List<WhitelistEntry>>(){}.getType());
+            List<WhitelistEntry> loadedEntries = readBinarySnapshot();
+            if (loadedEntries == null) {
+                String json = Files.readString(WHITELIST_PATH);
+                loadedEntries = GSON.fromJson(json,
+                        new TypeToken<List<WhitelistEntry>>(){}.getType());
+                if (loadedEntries == null) {
+                    loadedEntries = Collections.emptyList();
+                }
+                // JSON 文件有变化（或首次启动），重新生成二进制快照
+                writeBinarySnapshot(loadedEntries);
+            }
 
-            synchronized (entries) {
-                entries.clear();
-                if (loadedEntries != null) {
-                    entries.addAll(loadedEntries);
+            // 重放上次压缩之后的增删记录
+            List<WhitelistJournal.Record> records = openJournal();
+            if (!records.isEmpty()) {
+                Set<WhitelistEntry> replayed = new LinkedHashSet<>(loadedEntries);
+                for (WhitelistJournal.Record record : records) {
+                    if (record.add()) {
+                        replayed.add(record.entry());
+                    } else {
+                        replayed.remove(record.entry());
+                    }
                 }
+                loadedEntries = new ArrayList<>(replayed);
+                LOGGER.info("Replayed {} whitelist journal records", records.size());
             }
 
+            replaceEntries(loadedEntries);
+
             isLoaded = true;
             apiAvailable = false;
-            LOGGER.info("Loaded {} whitelist entries from local file", entries.size());
+            LOGGER.info("Loaded {} whitelist entries from local file", snapshot.size());
         } catch (IOException e) {
             LOGGER.error("Failed to load whitelist from file", e);
         }
     }
 
     private static void loadFromApi() {
+        if (!apiLoading.compareAndSet(false, true)) {
+            return;
+        }
         LOGGER.info("Attempting to load whitelist from API...");
 
         // 首先检查API是否可用
@@ -113,39 +428,88 @@ public class WhitelistManager {
                         // 从API同步白名单
                         ApiClient.syncWhitelist()
                                 .thenAccept(apiEntries -> {
-                                    synchronized (entries) {
-                                        entries.clear();
-                                        entries.addAll((Collection<? extends WhitelistEntry>) apiEntries);
-                                    }
+                                    replaceEntries((Collection<WhitelistEntry>) apiEntries);
 
                                     isLoaded = true;
                                     apiAvailable = true;
-                                    LOGGER.info("Successfully loaded {} whitelist entries from API", entries.size());
+                                    apiLoading.set(false);
+                                    LOGGER.info("Successfully loaded {} whitelist entries from API", snapshot.size());
 
                                     // 保存到本地文件作为备份
                                     saveToFile();
                                 })
                                 .exceptionally(e -> {
                                     LOGGER.error("Failed to sync from API, falling back to local file", e);
-                                    loadFromFile();
+                                    fallBackToFile();
                                     return null;
                                 });
                     } else {
                         LOGGER.error("Token verification failed, falling back to local file");
-                        loadFromFile();
+                        fallBackToFile();
                     }
+                }).exceptionally(e -> {
+                    LOGGER.error("Token verification error, falling back to local file", e);
+                    fallBackToFile();
+                    return null;
                 });
             } else {
                 LOGGER.warn("API health check failed, falling back to local file");
-                loadFromFile();
+                fallBackToFile();
             }
         }).exceptionally(e -> {
             LOGGER.error("API health check error, falling back to local file", e);
-            loadFromFile();
+            fallBackToFile();
             return null;
         });
     }
 
+    /**
+     * API 加载失败时改用本地文件；预热启动已加载过本地文件时保留现有快照，不使已恢复的结论失效。
+     */
+    private static void fallBackToFile() {
+        if (!isLoaded) {
+            loadFromFile();
+        } else {
+            LOGGER.info("Keeping the local whitelist loaded at startup ({} entries)", snapshot.size());
+        }
+        apiLoading.set(false);
+    }
+
+    /**
+     * 恢复上次关闭时保存的放行结论，仅当当前快照与保存时内容一致且未过期时生效。
+     */
+    private static void restoreVerdicts() {
+        if (!Config.WARM_START.get() || !isLoaded) {
+            return;
+        }
+        try {
+            Snapshot current = snapshot;
+            int restored = DecisionCache.load(VERDICT_CACHE_PATH, current.version, current.contentHash,
+                    VERDICT_MAX_AGE_MILLIS);
+            if (restored > 0) {
+                LOGGER.info("Restored {} cached login decisions from the previous run", restored);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read cached login decisions, starting cold", e);
+        }
+    }
+
+    /**
+     * 服务器关闭时保存当前快照下的放行结论，供下次启动预热。
+     */
+    public static void saveVerdicts() {
+        if (!Config.WARM_START.get() || !isLoaded) {
+            return;
+        }
+        try {
+            Snapshot current = snapshot;
+            int saved = DecisionCache.save(VERDICT_CACHE_PATH, current.version, current.contentHash);
+            LOGGER.debug("Saved {} cached login decisions", saved);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save cached login decisions", e);
+        }
+    }
+
     public static void loadAsync() {
         CompletableFuture.runAsync(WhitelistManager::load);
     }
@@ -165,6 +529,7 @@ public class WhitelistManager {
             load();
         }
 
+        long startNanos = System.nanoTime();
         boolean isHost = isHostPlayer(player);
 
         String name = PlayerCompat.getPlayerNameSafe(player);
@@ -184,36 +549,38 @@ public class WhitelistManager {
             LOGGER.info("[Host Login] {} ({}) joined as singleplayer host", name, uuid);
         }
 
-        synchronized (entries) {
-            for (WhitelistEntry entry : entries) {
-                // no need to perform checks if already allowed
-                if (allowed) {
-                    break;
-                }
-
-                if (ENABLE_NAME_CHECK && entry.type.equals("name") &&
-                        entry.value.equalsIgnoreCase(name)) {
-                    checkType = "name";
-                    allowed = true;
-                    break;
-                }
-                if (ENABLE_UUID_CHECK && entry.type.equals("uuid") &&
-                        entry.value.equalsIgnoreCase(uuid)) {
-                    checkType = "uuid";
-                    allowed = true;
-                    break;
-                }
-                if (ENABLE_IP_CHECK && entry.type.equals("ip") &&
-                        matchIP(entry.value, ip)) {
-                    checkType = "ip";
-                    allowed = true;
-                    break;
+        Snapshot current = snapshot;
+        if (!allowed) {
+            // 同一快照上的结论可以复用；快照版本变化后缓存自动失效
+            int flags = DecisionCache.flags(ENABLE_NAME_CHECK, ENABLE_UUID_CHECK, ENABLE_IP_CHECK);
+            DecisionCache.Key key = DecisionCache.Key.of(uuid, ip, name);
+            DecisionCache.Decision cached = DecisionCache.get(key, current.version, flags);
+            if (cached != null) {
+                Metrics.increment("check.cache_hit");
+                checkType = cached.checkType();
+            } else {
+                Metrics.increment("check.cache_miss");
+                // 名称与 UUID 的精确匹配先于限流：与被拒绝者共用地址（运营商 NAT、本机代理）的白名单玩家不受影响
+                checkType = findMatch(current.index, name, uuid, ip, ENABLE_NAME_CHECK, ENABLE_UUID_CHECK, false);
+                if (checkType == null && LoginThrottle.isThrottled(ip)) {
+                    // 拒绝次数过多的来源不再执行 IP 检查；限流只是暂时状态，结论不写入缓存
+                    Metrics.increment("check.throttled");
+                } else {
+                    if (checkType == null && ENABLE_IP_CHECK && current.index.matchesIp(ip)) {
+                        checkType = "ip";
+                    }
+                    DecisionCache.put(key, new DecisionCache.Decision(current.version, flags, checkType));
                 }
             }
+            allowed = checkType != null;
         }
+        Metrics.increment(allowed ? allowedCounter(checkType) : "check.denied");
+
+        // 同一来源的重复拒绝合并为摘要，不再逐条写日志与上报
+        boolean logIndividually = allowed || LoginThrottle.recordDenial(ip, name, uuid);
 
         // 仅当白名单已加载完成时才记录日志，避免模组初始化阶段的空白条目
-        if (isLoaded) {
+        if (isLoaded && logIndividually) {
             LogHandler.log(player, allowed);
 
             // 发送登录事件到API（如果启用且API可用）
@@ -226,9 +593,105 @@ public class WhitelistManager {
             }
         }
 
+        Metrics.recordNanos("check.isAllowed", System.nanoTime() - startNanos);
         return allowed;
     }
 
+    /**
+     * 各检查类型对应的放行计数器名称，使用常量避免每次检查都拼接字符串。
+     */
+    private static String allowedCounter(String checkType) {
+        return switch (checkType) {
+            case "host" -> "check.allowed.host";
+            case "name" -> "check.allowed.name";
+            case "uuid" -> "check.allowed.uuid";
+            case "ip" -> "check.allowed.ip";
+            default -> "check.allowed." + checkType;
+        };
+    }
+
+    /**
+     * 在给定索引上依次执行名称、UUID、IP检查，返回命中的检查类型；均未命中返回 null。
+     */
+    static String findMatch(WhitelistIndex index, String name, String uuid, String ip,
+                            boolean checkName, boolean checkUuid, boolean checkIp) {
+        if (checkName && index.containsName(name)) {
+            return "name";
+        }
+        if (checkUuid && index.containsUuid(uuid)) {
+            return "uuid";
+        }
+        if (checkIp && index.matchesIp(ip)) {
+            return "ip";
+        }
+        return null;
+    }
+
+    /**
+     * 登录开始阶段（会话验证与玩家实体创建之前）的预检查。
+     * 此时客户端声明的 UUID 尚未经过验证，因此同时尝试声明的 UUID 与离线模式 UUID；
+     * 只有在确定会被完整检查拒绝时才返回 false，白名单尚未加载或来自本地内存连接时一律放行，
+     * 交由 {@link #isAllowed(ServerPlayer)} 做最终判断。
+     */
+    public static boolean isAllowedAtLoginStart(String name, UUID profileId, SocketAddress address) {
+        if (!isLoaded || !(address instanceof InetSocketAddress isa) || isa.getAddress() == null) {
+            return true;
+        }
+
+        String ip = isa.getAddress().getHostAddress();
+        String offlineUuid = UUIDUtil.createOfflinePlayerUUID(name).toString();
+        String claimedUuid = profileId != null ? profileId.toString() : offlineUuid;
+
+        boolean ENABLE_NAME_CHECK = Config.ENABLE_NAME_CHECK.get();
+        boolean ENABLE_UUID_CHECK = Config.ENABLE_UUID_CHECK.get();
+        boolean ENABLE_IP_CHECK = Config.ENABLE_IP_CHECK.get();
+
+        WhitelistIndex index = snapshot.index;
+
+        // 名称与 UUID 的精确匹配先于限流，白名单玩家不会因共用地址被拒绝
+        String checkType = findMatch(index, name, claimedUuid, ip, ENABLE_NAME_CHECK, ENABLE_UUID_CHECK, false);
+        if (checkType == null && ENABLE_UUID_CHECK && index.containsUuid(offlineUuid)) {
+            checkType = "uuid";
+        }
+        if (checkType != null) {
+            return true;
+        }
+
+        // 拒绝次数过多的来源直接断开，不再执行 IP 检查
+        if (LoginThrottle.isThrottled(ip)) {
+            Metrics.increment("check.throttled");
+            LoginThrottle.recordDenial(ip, name, claimedUuid);
+            return false;
+        }
+
+        if (ENABLE_IP_CHECK && index.matchesIp(ip)) {
+            return true;
+        }
+
+        // 同一来源的重复拒绝合并为摘要，不再逐条写日志与上报
+        if (LoginThrottle.recordDenial(ip, name, claimedUuid)) {
+            LogHandler.log(name, claimedUuid, ip, false);
+            if (Config.API_LOG_LOGIN_EVENTS.get() && apiAvailable) {
+                ApiClient.logLoginEvent(name, claimedUuid, ip, false, "none");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 连接级IP预过滤：仅当IP检查是唯一启用的规则时才能在握手前做出判断。
+     * 返回 true 表示该地址无法命中任何IP规则，连接必然会被拒绝。
+     */
+    public static boolean shouldRejectConnection(SocketAddress address) {
+        if (!isLoaded || !(address instanceof InetSocketAddress isa) || isa.getAddress() == null) {
+            return false;
+        }
+        if (!Config.ENABLE_IP_CHECK.get() || Config.ENABLE_NAME_CHECK.get() || Config.ENABLE_UUID_CHECK.get()) {
+            return false;
+        }
+        return !snapshot.index.matchesIp(isa.getAddress().getHostAddress());
+    }
+
     private static String getPlayerIP(ServerPlayer player) {
         try {
             var ra = player.connection.getConnection().getRemoteAddress();
@@ -240,76 +703,294 @@ public class WhitelistManager {
         }
     }
 
-    private static final Map<String, Pattern> regexCache = new HashMap<>();
+    /**
+     * 把当前快照完整写回 JSON 文件（即日志压缩）。在 WRITE_LOCK 内捕获快照并轮换日志，
+     * 保证被轮换出去的记录都已包含在写出的快照中；写文件本身不阻塞登录检查与增删。
+     */
+    static void saveToFile() {
+        synchronized (FILE_LOCK) {
+            List<WhitelistEntry> current;
+            WhitelistJournal currentJournal;
+            try {
+                synchronized (WRITE_LOCK) {
+                    current = snapshot.entries();
+                    currentJournal = journal;
+                    if (currentJournal != null) {
+                        currentJournal.rotate();
+                    }
+                }
 
-    private static boolean matchIP(String pattern, String ip) {
-        try {
-            Pattern compiledPattern = regexCache.computeIfAbsent(pattern, p -> {
-                String regex = p.replace(".", "\\.").replace("*", ".*");
-                if (ip.contains(":")) {
-                    regex = regex.replaceAll("::", "(::|:([0-9a-fA-F]{0,4}:){0,7})");
+                // 先写临时文件再原子替换，崩溃时不会留下写了一半的 JSON
+                byte[] json = GSON.toJson(current).getBytes(StandardCharsets.UTF_8);
+                Path tempPath = WHITELIST_PATH.resolveSibling(WHITELIST_PATH.getFileName() + ".tmp");
+                Files.write(tempPath, json);
+                if (currentJournal != null) {
+                    currentJournal.markSnapshot(WhitelistJournal.fingerprint(json));
                 }
-                return Pattern.compile(regex);
-            });
+                Files.move(tempPath, WHITELIST_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                writeBinarySnapshot(current);
 
-            return compiledPattern.matcher(ip).matches();
-        } catch (Exception e) {
-            LOGGER.error("Invalid regex pattern: " + pattern, e);
-            return false;
+                if (currentJournal != null) {
+                    currentJournal.commitRotation();
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to save whitelist to file", e);
+            }
         }
     }
 
-    static void saveToFile() {
+    /**
+     * 打开日志并返回尚未压缩的记录；首次打开时启动后台压缩。
+     * JSON 文件在日志写入之后被手动修改过时，日志中的记录会被丢弃。
+     */
+    private static List<WhitelistJournal.Record> openJournal() throws IOException {
+        String fingerprint = Files.exists(WHITELIST_PATH)
+                ? WhitelistJournal.fingerprint(Files.readAllBytes(WHITELIST_PATH))
+                : null;
+        synchronized (WRITE_LOCK) {
+            if (journal == null) {
+                journal = new WhitelistJournal(JOURNAL_PATH, Config.JOURNAL_FSYNC.get(),
+                        Config.JOURNAL_COMPACT_THRESHOLD.get());
+                List<WhitelistJournal.Record> records = journal.open(fingerprint);
+                journal.startMaintenance(WhitelistManager::saveToFile);
+                return records;
+            }
+            return journal.open(fingerprint);
+        }
+    }
+
+    /**
+     * 记录一次增删。调用方必须持有 WRITE_LOCK，使日志顺序与快照发布顺序一致。
+     * 日志不可用时退回为一次完整保存。
+     */
+    private static void journalChange(boolean add, WhitelistEntry entry) {
         try {
-            synchronized (entries) {
-                Files.writeString(WHITELIST_PATH, GSON.toJson(entries));
+            if (journal == null) {
+                openJournal();
             }
+            journal.append(add, entry);
         } catch (IOException e) {
-            LOGGER.error("Failed to save whitelist to file", e);
+            LOGGER.error("Failed to append to whitelist journal, saving full file instead", e);
+            CompletableFuture.runAsync(WhitelistManager::saveToFile);
         }
     }
 
-    public static void addEntry(WhitelistEntry entry) {
-        // 先添加到内存
-        synchronized (entries) {
-            if (!entries.contains(entry)) {
-                entries.add(entry);
+    /**
+     * 服务器关闭时把日志压缩回 JSON 文件并关闭日志，停服后 JSON 即为最新内容、日志为空。
+     */
+    public static void flushJournal() {
+        if (journal == null) {
+            return;
+        }
+        if (journal.hasPendingRecords()) {
+            saveToFile();
+        }
+        synchronized (FILE_LOCK) {
+            synchronized (WRITE_LOCK) {
+                if (journal != null) {
+                    journal.close();
+                    journal = null;
+                }
             }
         }
+    }
+
+    /**
+     * 读取与 JSON 文件一致的二进制快照；未启用、不存在或已过期时返回 null。
+     */
+    private static List<WhitelistEntry> readBinarySnapshot() {
+        if (!Config.BINARY_SNAPSHOT.get()) {
+            return null;
+        }
+        try {
+            List<WhitelistEntry> entries = BinarySnapshot.read(BINARY_SNAPSHOT_PATH, WHITELIST_PATH);
+            if (entries != null) {
+                LOGGER.debug("Loaded {} entries from binary snapshot", entries.size());
+            }
+            return entries;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read binary whitelist snapshot, falling back to JSON", e);
+            return null;
+        }
+    }
+
+    private static void writeBinarySnapshot(Collection<WhitelistEntry> entries) {
+        if (!Config.BINARY_SNAPSHOT.get()) {
+            return;
+        }
+        try {
+            BinarySnapshot.write(BINARY_SNAPSHOT_PATH, WHITELIST_PATH, entries);
+        } catch (IOException e) {
+            // 快照只是加速手段，写入失败时下次启动读取 JSON 即可
+            LOGGER.warn("Failed to write binary whitelist snapshot", e);
+        }
+    }
+
+    /**
+     * 在当前快照上增删条目并发布新快照，版本号递增。调用方必须持有 WRITE_LOCK。
+     */
+    private static void publish(Collection<WhitelistEntry> added, Collection<WhitelistEntry> removed) {
+        snapshot = snapshot.withChanges(added, removed);
+    }
+
+    /**
+     * 用新的条目集合整体替换内存中的白名单。
+     */
+    private static void replaceEntries(Collection<WhitelistEntry> newEntries) {
+        synchronized (WRITE_LOCK) {
+            Snapshot current = snapshot;
+            Snapshot next = new Snapshot(current.version + 1, newEntries);
+            // 内容未变化（例如预热启动后 API 返回了相同的列表）时保留当前版本，缓存的检查结论继续有效
+            if (next.sameEntries(current)) {
+                LOGGER.debug("Whitelist unchanged, keeping snapshot version {}", current.version);
+                return;
+            }
+            snapshot = next;
+        }
+    }
+
+    /**
+     * 若条目不存在则加入新快照，返回是否实际加入。
+     */
+    private static boolean addToSnapshot(WhitelistEntry entry) {
+        synchronized (WRITE_LOCK) {
+            Snapshot current = snapshot;
+            if (current.contains(entry)) {
+                return false;
+            }
+            publish(List.of(entry), List.of());
+            journalChange(true, entry);
+            return true;
+        }
+    }
+
+    /**
+     * 在当前快照上应用一次增量变更。
+     */
+    private static void applyDelta(Collection<WhitelistEntry> added, Collection<WhitelistEntry> removed) {
+        synchronized (WRITE_LOCK) {
+            Snapshot current = snapshot;
+            Set<WhitelistEntry> removedSet = new LinkedHashSet<>();
+            for (WhitelistEntry entry : removed) {
+                if (Snapshot.isComplete(entry) && current.contains(entry)) {
+                    removedSet.add(entry);
+                }
+            }
+            Set<WhitelistEntry> addedSet = new LinkedHashSet<>();
+            for (WhitelistEntry entry : added) {
+                if (Snapshot.isComplete(entry) && (!current.contains(entry) || removedSet.contains(entry))) {
+                    addedSet.add(entry);
+                }
+            }
+            if (removedSet.isEmpty() && addedSet.isEmpty()) {
+                return;
+            }
+            publish(addedSet, removedSet);
+            for (WhitelistEntry entry : removedSet) {
+                journalChange(false, entry);
+            }
+            for (WhitelistEntry entry : addedSet) {
+                journalChange(true, entry);
+            }
+        }
+    }
+
+    /**
+     * 从API拉取自上次同步以来的变更并应用到内存，必要时由 ApiClient 退回全量同步。
+     * 同步失败时保留当前快照，不改动内存与本地文件。
+     */
+    private static void syncChangesFromApi() {
+        ApiClient.syncWhitelistDelta()
+                .thenAccept(result -> {
+                    if (result.full) {
+                        replaceEntries(result.entries);
+                        saveToFile();
+                    } else if (!result.added.isEmpty() || !result.removed.isEmpty()) {
+                        // 增量结果只追加日志，不重写整个文件
+                        applyDelta(result.added, result.removed);
+                    }
+                })
+                .exceptionally(e -> {
+                    LOGGER.error("Failed to sync changes from API, keeping the current whitelist", e);
+                    return null;
+                });
+    }
+
+    public static void addEntry(WhitelistEntry entry) {
+        // 先添加到内存并记入日志
+        addToSnapshot(entry);
 
         // 如果API可用，同步到API
         if (useApi && apiAvailable) {
             ApiClient.addEntry(entry)
                     .thenAccept(success -> {
                         if (success) {
-                            // API成功，清除缓存并重新同步
-                            ApiClient.clearCache();
-                            ApiClient.syncWhitelist()
-                                    .thenAccept(newEntries -> {
-                                        synchronized (entries) {
-                                            entries.clear();
-                                            entries.addAll((Collection<? extends WhitelistEntry>) newEntries);
-                                        }
-                                        saveToFile();
-                                    });
+                            // API成功，增量拉取服务端的变更
+                            syncChangesFromApi();
                         } else {
-                            // API失败，只保存到本地
+                            // API失败，条目已记入本地日志
                             LOGGER.warn("Failed to add entry to API, saving locally only");
-                            saveToFile();
                         }
                     });
-        } else {
-            // 直接保存到本地文件
+        }
+    }
+
+    /**
+     * 批量添加条目：一次发布快照，API 模式下只发送一次批量请求。返回实际新增的条目。
+     */
+    public static CompletableFuture<List<WhitelistEntry>> addEntries(Collection<WhitelistEntry> newEntries) {
+        List<WhitelistEntry> added;
+        synchronized (WRITE_LOCK) {
+            Snapshot current = snapshot;
+            Set<WhitelistEntry> unique = new LinkedHashSet<>();
+            for (WhitelistEntry entry : newEntries) {
+                if (!current.contains(entry)) {
+                    unique.add(entry);
+                }
+            }
+            added = new ArrayList<>(unique);
+            if (added.isEmpty()) {
+                return CompletableFuture.completedFuture(added);
+            }
+
+            publish(added, List.of());
+
+            // 小批量追加日志；大批量直接完整保存，避免日志立即膨胀到压缩阈值
+            if (added.size() < Config.JOURNAL_COMPACT_THRESHOLD.get()) {
+                for (WhitelistEntry entry : added) {
+                    journalChange(true, entry);
+                }
+            }
+        }
+
+        if (added.size() >= Config.JOURNAL_COMPACT_THRESHOLD.get()) {
             saveToFile();
         }
+
+        if (useApi && apiAvailable) {
+            return ApiClient.addEntries(added).thenApply(success -> {
+                if (success) {
+                    syncChangesFromApi();
+                } else {
+                    LOGGER.warn("Failed to upload {} entries to API, saved locally only", added.size());
+                }
+                return added;
+            });
+        }
+        return CompletableFuture.completedFuture(added);
     }
 
     public static boolean removeEntry(String type, String value) {
         WhitelistEntry entry = new WhitelistEntry(type, value);
         boolean removed;
 
-        synchronized (entries) {
-            removed = entries.remove(entry);
+        synchronized (WRITE_LOCK) {
+            Snapshot current = snapshot;
+            removed = current.contains(entry);
+            if (removed) {
+                publish(List.of(), List.of(entry));
+                journalChange(false, entry);
+            }
         }
 
         if (removed) {
@@ -317,39 +998,25 @@ public class WhitelistManager {
                 ApiClient.removeEntry(type, value)
                         .thenAccept(success -> {
                             if (success) {
-                                // API成功，清除缓存并重新同步
-                                ApiClient.clearCache();
-                                ApiClient.syncWhitelist()
-                                        .thenAccept(newEntries -> {
-                                            synchronized (entries) {
-                                                entries.clear();
-                                                entries.addAll((Collection<? extends WhitelistEntry>) newEntries);
-                                            }
-                                            saveToFile();
-                                        });
+                                // API成功，增量拉取服务端的变更
+                                syncChangesFromApi();
                             } else {
                                 // API失败，重新添加被删除的条目
                                 LOGGER.warn("Failed to remove entry from API, restoring locally");
-                                synchronized (entries) {
-                                    if (!entries.contains(entry)) {
-                                        entries.add(entry);
-                                    }
-                                }
-                                saveToFile();
+                                addToSnapshot(entry);
                             }
                         });
-            } else {
-                saveToFile();
             }
         }
 
         return removed;
     }
 
+    /**
+     * 返回当前快照中的条目（只读列表）。
+     */
     public static List<WhitelistEntry> getEntries() {
-        synchronized (entries) {
-            return new ArrayList<>(entries);
-        }
+        return snapshot.entries();
     }
 
     public static void reload() {
@@ -359,9 +1026,7 @@ public class WhitelistManager {
     }
 
     public static boolean containsEntry(WhitelistEntry entry) {
-        synchronized (entries) {
-            return entries.contains(entry);
-        }
+        return snapshot.contains(entry);
     }
 
     public static boolean isUsingApi() {
@@ -373,8 +1038,13 @@ public class WhitelistManager {
     }
 
     public static int getEntryCount() {
-        synchronized (entries) {
-            return entries.size();
-        }
+        return snapshot.size();
+    }
+
+    /**
+     * 当前快照的版本号，每次白名单变更（增删、重载、API同步）都会递增。
+     */
+    public static long getSnapshotVersion() {
+        return snapshot.version;
     }
 }
\ No newline at end of file
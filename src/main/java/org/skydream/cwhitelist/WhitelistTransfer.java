@@ -0,0 +1,324 @@
+package org.skydream.cwhitelist;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * 白名单批量导入/导出。
+ * <p>
+ * 支持三种格式：原版 {@code whitelist.json}（{@code [{"uuid": ..., "name": ...}]}，
+ * 每个玩家导入为 name 与 uuid 两条）、本模组的 JSON（{@code [{"type": ..., "value": ...}]}）
+ * 以及 CSV（每行 {@code type,value}，可带表头，引号规则遵循 RFC 4180）。解析按块并行进行，
+ * 去重使用与 {@link WhitelistManager.WhitelistEntry#equals} 相同的规则。
+ */
+public final class WhitelistTransfer {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_]{1,16}");
+    // IpMatcher 无法解析为前缀的规则退回 glob 匹配，glob 只支持 *
+    private static final Pattern IP_GLOB_PATTERN = Pattern.compile("[0-9A-Fa-f.:*]*\\*[0-9A-Fa-f.:*]*");
+    private static final int CHUNK_SIZE = 1000;
+
+    private WhitelistTransfer() {
+    }
+
+    /**
+     * 一次导入的解析结果。
+     */
+    public static final class ParseResult {
+        public final List<WhitelistManager.WhitelistEntry> entries;
+        public final int total;
+        public final int invalid;
+        public final int duplicates;
+
+        ParseResult(List<WhitelistManager.WhitelistEntry> entries, int total, int invalid, int duplicates) {
+            this.entries = entries;
+            this.total = total;
+            this.invalid = invalid;
+            this.duplicates = duplicates;
+        }
+    }
+
+    /**
+     * 解析导入文件。进度回调的参数为 0-100 的百分比，可能在任意线程上调用。
+     */
+    public static ParseResult parse(Path file, IntConsumer progress) throws IOException {
+        String content = Files.readString(file, StandardCharsets.UTF_8);
+        String fileName = file.getFileName().toString().toLowerCase(Locale.ROOT);
+
+        List<String[]> raw;
+        if (fileName.endsWith(".csv")) {
+            raw = readCsv(content);
+        } else {
+            raw = readJson(content);
+        }
+
+        int total = raw.size();
+        int chunks = (total + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        AtomicInteger invalid = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger lastReported = new AtomicInteger();
+
+        // 按块并行校验；有序流保证结果保持文件中的顺序
+        List<List<WhitelistManager.WhitelistEntry>> parsed = IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> {
+                    int from = chunk * CHUNK_SIZE;
+                    int to = Math.min(total, from + CHUNK_SIZE);
+                    List<WhitelistManager.WhitelistEntry> out = new ArrayList<>(to - from);
+                    for (int i = from; i < to; i++) {
+                        WhitelistManager.WhitelistEntry entry = toEntry(raw.get(i));
+                        if (entry != null) {
+                            out.add(entry);
+                        } else {
+                            invalid.incrementAndGet();
+                        }
+                    }
+                    reportProgress(done.addAndGet(to - from), total, lastReported, progress);
+                    return out;
+                })
+                .toList();
+
+        Set<WhitelistManager.WhitelistEntry> unique = new LinkedHashSet<>();
+        int valid = 0;
+        for (List<WhitelistManager.WhitelistEntry> chunk : parsed) {
+            valid += chunk.size();
+            unique.addAll(chunk);
+        }
+
+        return new ParseResult(new ArrayList<>(unique), total, invalid.get(), valid - unique.size());
+    }
+
+    /**
+     * 导出条目。扩展名为 .csv 时写 CSV，否则写本模组的 JSON 格式。
+     */
+    public static void export(Path file, Collection<WhitelistManager.WhitelistEntry> entries) throws IOException {
+        String fileName = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        String content;
+        if (fileName.endsWith(".csv")) {
+            StringBuilder sb = new StringBuilder(16 + entries.size() * 32);
+            sb.append("type,value\r\n");
+            for (WhitelistManager.WhitelistEntry entry : entries) {
+                appendCsvField(sb, entry.getType());
+                sb.append(',');
+                appendCsvField(sb, entry.getValue());
+                sb.append("\r\n");
+            }
+            content = sb.toString();
+        } else {
+            content = GSON.toJson(entries);
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tempPath = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tempPath, content, StandardCharsets.UTF_8);
+        Files.move(tempPath, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 校验并规范化一条 (type, value)，无效时返回 null。
+     */
+    static WhitelistManager.WhitelistEntry toEntry(String[] raw) {
+        if (raw[0] == null || raw[1] == null) {
+            return null;
+        }
+        String type = raw[0].trim().toLowerCase(Locale.ROOT);
+        String value = raw[1].trim();
+        if (value.isEmpty()) {
+            return null;
+        }
+
+        switch (type) {
+            case "name" -> {
+                if (!NAME_PATTERN.matcher(value).matches()) {
+                    return null;
+                }
+            }
+            case "uuid" -> {
+                try {
+                    value = UUID.fromString(value).toString();
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+            case "ip" -> {
+                if (IpMatcher.parseRule(value, new long[2]) < 0 && !IP_GLOB_PATTERN.matcher(value).matches()) {
+                    return null;
+                }
+            }
+            default -> {
+                return null;
+            }
+        }
+        return new WhitelistManager.WhitelistEntry(type, value);
+    }
+
+    /**
+     * 按 RFC 4180 写出一个字段：含逗号、引号或换行时整体加引号，引号写成两个。
+     */
+    private static void appendCsvField(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    /**
+     * 按 RFC 4180 读取 CSV：引号内的逗号与换行属于字段内容，两个引号表示一个引号。
+     * 只取每行的前两列；另外跳过空行、以 # 开头的注释行以及首行表头。
+     */
+    static List<String[]> readCsv(String content) {
+        List<String[]> out = new ArrayList<>();
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean hadQuotes = false;
+        int n = content.length();
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? content.charAt(i) : '\n';
+            if (quoted) {
+                if (i == n) {
+                    // 引号没有闭合，按已读到的内容结束
+                    quoted = false;
+                } else if (c != '"') {
+                    field.append(c);
+                    continue;
+                } else if (i + 1 < n && content.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                    continue;
+                } else {
+                    quoted = false;
+                    continue;
+                }
+            }
+
+            if (c == '"' && field.toString().isBlank()) {
+                field.setLength(0);
+                quoted = true;
+                hadQuotes = true;
+            } else if (c == '#' && fields.isEmpty() && !hadQuotes && field.toString().isBlank()) {
+                // 注释行：跳到行尾
+                while (i + 1 < n && content.charAt(i + 1) != '\n' && content.charAt(i + 1) != '\r') {
+                    i++;
+                }
+                field.setLength(0);
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && i + 1 < n && content.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                if (!fields.isEmpty() || hadQuotes || !field.toString().isBlank()) {
+                    fields.add(field.toString());
+                    addCsvRow(out, fields);
+                }
+                fields.clear();
+                field.setLength(0);
+                hadQuotes = false;
+            } else {
+                field.append(c);
+            }
+        }
+        return out;
+    }
+
+    private static void addCsvRow(List<String[]> out, List<String> fields) {
+        if (fields.size() < 2) {
+            out.add(new String[]{null, null});
+            return;
+        }
+        String type = fields.get(0).trim();
+        String value = fields.get(1).trim();
+        // 跳过表头
+        if (out.isEmpty() && type.equalsIgnoreCase("type") && value.equalsIgnoreCase("value")) {
+            return;
+        }
+        out.add(new String[]{type, value});
+    }
+
+    /**
+     * 读取本模组格式或原版 whitelist.json 格式，按对象上的字段自动识别。
+     */
+    private static List<String[]> readJson(String content) throws IOException {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(content);
+        } catch (Exception e) {
+            throw new IOException("Invalid JSON: " + e.getMessage(), e);
+        }
+        if (!root.isJsonArray()) {
+            throw new IOException("Expected a JSON array");
+        }
+
+        JsonArray array = root.getAsJsonArray();
+        List<String[]> out = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            if (!element.isJsonObject()) {
+                out.add(new String[]{null, null});
+                continue;
+            }
+            JsonObject obj = element.getAsJsonObject();
+            if (obj.has("type")) {
+                out.add(new String[]{getString(obj, "type"), getString(obj, "value")});
+            } else {
+                // 原版格式：一个玩家同时导入名称与 UUID
+                String name = getString(obj, "name");
+                String uuid = getString(obj, "uuid");
+                if (name == null && uuid == null) {
+                    out.add(new String[]{null, null});
+                }
+                if (name != null) {
+                    out.add(new String[]{"name", name});
+                }
+                if (uuid != null) {
+                    out.add(new String[]{"uuid", uuid});
+                }
+            }
+        }
+        return out;
+    }
+
+    private static String getString(JsonObject obj, String key) {
+        JsonElement value = obj.get(key);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    private static void reportProgress(int done, int total, AtomicInteger lastReported, IntConsumer progress) {
+        int percent = total == 0 ? 100 : (int) (done * 100L / total);
+        // 每 25% 报告一次，避免刷屏
+        int step = percent / 25 * 25;
+        int previous = lastReported.get();
+        if (step > previous && step < 100 && lastReported.compareAndSet(previous, step)) {
+            progress.accept(step);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.skydream.cwhitelist.mixin;
+
+import io.netty.channel.ChannelPipeline;
+import net.minecraft.network.BandwidthDebugMonitor;
+import net.minecraft.network.Connection;
+import net.minecraft.network.protocol.PacketFlow;
+import org.skydream.cwhitelist.Config;
+import org.skydream.cwhitelist.IpPrefilterHandler;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * 服务端为每个新的 TCP 连接配置管线时，安装IP预过滤器。
+ * 该方法在通道注册时调用，早于通道激活与握手。
+ */
+@Mixin(Connection.class)
+public abstract class ConnectionMixin {
+    @Inject(method = "configureSerialization", at = @At("HEAD"))
+    private static void cwhitelist$installIpPrefilter(ChannelPipeline pipeline, PacketFlow flow, boolean memoryOnly,
+                                                      BandwidthDebugMonitor bandwidthDebugMonitor, CallbackInfo ci) {
+        // 只处理服务端的网络连接，单机内存连接不经过过滤
+        if (flow == PacketFlow.SERVERBOUND && !memoryOnly && Config.IP_PREFILTER.get()) {
+            IpPrefilterHandler.install(pipeline);
+        }
+    }
+}
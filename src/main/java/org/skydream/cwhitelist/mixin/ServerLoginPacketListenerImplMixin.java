@@ -0,0 +1,43 @@
+package org.skydream.cwhitelist.mixin;
+
+import net.minecraft.network.Connection;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.protocol.login.ServerboundHelloPacket;
+import net.minecraft.server.network.ServerLoginPacketListenerImpl;
+import org.skydream.cwhitelist.Config;
+import org.skydream.cwhitelist.Cwhitelist;
+import org.skydream.cwhitelist.WhitelistManager;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * 在收到登录 Hello 包时（会话验证、玩家数据加载与进入世界之前）执行白名单预检查，
+ * 确定会被拒绝的连接直接断开，不再进行 Mojang 会话验证与任何世界相关的工作。
+ */
+@Mixin(ServerLoginPacketListenerImpl.class)
+public abstract class ServerLoginPacketListenerImplMixin {
+    @Shadow
+    @Final
+    Connection connection;
+
+    @Shadow
+    public abstract void disconnect(Component reason);
+
+    @Inject(method = "handleHello", at = @At("HEAD"), cancellable = true)
+    private void cwhitelist$rejectAtLoginStart(ServerboundHelloPacket packet, CallbackInfo ci) {
+        if (!Config.EARLY_REJECTION.get()) {
+            return;
+        }
+
+        if (!WhitelistManager.isAllowedAtLoginStart(packet.name(), packet.profileId(),
+                connection.getRemoteAddress())) {
+            // 此阶段尚未收到客户端语言设置，使用默认语言
+            disconnect(Cwhitelist.getKickMessage(null, "cwhitelist.player.kick.not_whitelisted"));
+            ci.cancel();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.skydream.cwhitelist;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ApiClientTest {
+
+    @Test
+    void metricKeyUsesTemplateForEntryPaths() {
+        assertEquals("/whitelist/entries/:type/:value",
+                ApiClient.metricKey("/whitelist/entries/name/Steve?server_id=lobby"));
+        assertEquals("/whitelist/entries/:type/:value",
+                ApiClient.metricKey("/whitelist/entries/ip/10.0.0.0%2F8"));
+        assertEquals("/whitelist/entries/bulk", ApiClient.metricKey("/whitelist/entries/bulk"));
+        assertEquals("/whitelist/entries", ApiClient.metricKey("/whitelist/entries"));
+    }
+
+    @Test
+    void metricKeySeparatesDeltaSync() {
+        assertEquals("/whitelist/sync", ApiClient.metricKey("/whitelist/sync?server_id=a"));
+        assertEquals("/whitelist/sync#delta", ApiClient.metricKey("/whitelist/sync?server_id=a&since=42"));
+        assertEquals("/tokens/verify", ApiClient.metricKey("/tokens/verify"));
+    }
+}
@@ -0,0 +1,181 @@
+package org.skydream.cwhitelist;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CborTest {
+
+    private static Cbor.Reader reader(byte[] bytes) {
+        return new Cbor.Reader(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    void roundTripsWriterOutput() throws IOException {
+        byte[] bytes = new Cbor.Writer(16)
+                .beginMap(4)
+                .name("success").value(true)
+                .name("revision").value(70000L)
+                .name("offset").value(-25L)
+                .name("entries").beginArray(2)
+                .beginMap(2).name("type").value("name").name("value").value("Steve")
+                .beginMap(2).name("type").value("ip").name("value").nullValue()
+                .toByteArray();
+
+        Cbor.Reader r = reader(bytes);
+        r.beginMap();
+        assertEquals("success", r.nextName());
+        assertTrue(r.nextBoolean());
+        assertEquals("revision", r.nextName());
+        assertEquals(70000L, r.nextLong());
+        assertEquals("offset", r.nextName());
+        assertEquals(-25L, r.nextLong());
+        assertEquals("entries", r.nextName());
+        r.beginArray();
+        r.beginMap();
+        assertEquals("type", r.nextName());
+        assertEquals("name", r.nextString());
+        assertEquals("value", r.nextName());
+        assertEquals("Steve", r.nextString());
+        assertFalse(r.hasNext());
+        r.endMap();
+        r.beginMap();
+        assertEquals("type", r.nextName());
+        assertEquals("ip", r.nextString());
+        assertEquals("value", r.nextName());
+        assertTrue(r.peekNull());
+        r.nextNull();
+        r.endMap();
+        assertFalse(r.hasNext());
+        r.endArray();
+        assertFalse(r.hasNext());
+        r.endMap();
+    }
+
+    @Test
+    void roundTripsLongAndNonAsciiStrings() throws IOException {
+        char[] chars = new char[70000];
+        Arrays.fill(chars, 'x');
+        String longText = new String(chars);
+        byte[] bytes = new Cbor.Writer(16).beginArray(2).value(longText).value("白名单").toByteArray();
+
+        Cbor.Reader r = reader(bytes);
+        r.beginArray();
+        assertEquals(longText, r.nextString());
+        assertEquals("白名单", r.nextString());
+        r.endArray();
+    }
+
+    @Test
+    void readsIndefiniteLengthItemsAndSkipsUnknownValues() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xBF); // 不定长 map
+        out.writeBytes(new Cbor.Writer(16).name("tagged").toByteArray());
+        out.writeBytes(new byte[]{(byte) 0xC1, (byte) 0xFB, 1, 2, 3, 4, 5, 6, 7, 8}); // tag 1 + float64
+        out.writeBytes(new Cbor.Writer(16).name("bytes").toByteArray());
+        out.writeBytes(new byte[]{0x43, 9, 9, 9}); // 3 字节的字节串
+        out.writeBytes(new Cbor.Writer(16).name("nested").toByteArray());
+        out.writeBytes(new byte[]{(byte) 0x9F, 0x01, (byte) 0xA1, 0x61, 'k', 0x02, (byte) 0xFF}); // [1, {"k": 2}]
+        out.writeBytes(new Cbor.Writer(16).name("name").toByteArray());
+        out.write(0x7F); // 不定长文本串，两个分段
+        out.writeBytes(new byte[]{0x62, 'S', 't', 0x63, 'e', 'v', 'e', (byte) 0xFF});
+        out.write(0xFF);
+
+        Cbor.Reader r = reader(out.toByteArray());
+        r.beginMap();
+        String name = null;
+        while (r.hasNext()) {
+            if (r.nextName().equals("name")) {
+                name = r.nextString();
+            } else {
+                r.skipValue();
+            }
+        }
+        r.endMap();
+        assertEquals("Steve", name);
+    }
+
+    @Test
+    void readsIntegersAsStrings() throws IOException {
+        Cbor.Reader r = reader(new Cbor.Writer(16).value(12345L).toByteArray());
+        assertEquals("12345", r.nextString());
+    }
+
+    @Test
+    void rejectsTruncatedInput() {
+        byte[] bytes = new Cbor.Writer(16).beginMap(1).name("name").value("Steve").toByteArray();
+        for (int length = 1; length < bytes.length; length++) {
+            Cbor.Reader r = reader(Arrays.copyOf(bytes, length));
+            assertThrows(EOFException.class, () -> {
+                r.beginMap();
+                r.nextName();
+                r.nextString();
+            }, "truncated at " + length);
+        }
+    }
+
+    @Test
+    void rejectsTypeMismatch() {
+        byte[] bytes = new Cbor.Writer(16).value("text").toByteArray();
+        assertThrows(IOException.class, () -> reader(bytes).nextBoolean());
+        assertThrows(IOException.class, () -> reader(bytes).nextLong());
+        assertThrows(IOException.class, () -> reader(bytes).beginMap());
+        assertThrows(IOException.class, () -> reader(bytes).nextNull());
+    }
+
+    @Test
+    void rejectsReadingPastDefiniteContainer() throws IOException {
+        Cbor.Reader r = reader(new byte[]{(byte) 0x81, 0x01, 0x02});
+        r.beginArray();
+        assertEquals(1L, r.nextLong());
+        assertFalse(r.hasNext());
+        assertThrows(IOException.class, r::nextLong);
+    }
+
+    @Test
+    void rejectsUnreadItemsOnEnd() throws IOException {
+        Cbor.Reader r = reader(new byte[]{(byte) 0x82, 0x01, 0x02});
+        r.beginArray();
+        r.nextLong();
+        assertThrows(IOException.class, r::endArray);
+    }
+
+    @Test
+    void rejectsReservedAdditionalInfo() {
+        assertThrows(IOException.class, () -> reader(new byte[]{0x1C}).nextLong());
+    }
+
+    @Test
+    void rejectsStrayBreakWhenSkipping() {
+        assertThrows(IOException.class, () -> reader(new byte[]{(byte) 0xFF}).skipValue());
+    }
+
+    @Test
+    void rejectsOversizedStringLength() {
+        // 文本串声明长度 0xFFFFFFFF，不应尝试分配
+        byte[] bytes = {0x7A, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        assertThrows(IOException.class, () -> reader(bytes).nextString());
+    }
+
+    @Test
+    void rejectsExcessiveNesting() {
+        byte[] opened = new byte[200];
+        Arrays.fill(opened, (byte) 0x81); // 200 层单元素数组
+        assertThrows(IOException.class, () -> reader(opened).skipValue());
+        assertThrows(IOException.class, () -> {
+            Cbor.Reader r = reader(opened);
+            for (int i = 0; i < opened.length; i++) {
+                r.beginArray();
+            }
+        });
+    }
+}
@@ -0,0 +1,75 @@
+package org.skydream.cwhitelist;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    /** 窗口 2 次、失败率 50% 即打开，打开时长 0 毫秒（立即可以探测） */
+    private static CircuitBreaker openedBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50, 100, 60_000, 0, 0);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    @Test
+    void opensAfterFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(4, 50, 100, 60_000, 60_000, 60_000);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure(0);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    void halfOpenAllowsSingleProbe() {
+        CircuitBreaker breaker = openedBreaker();
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.isCallPermitted());
+
+        breaker.onSuccess(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.isCallPermitted());
+    }
+
+    @Test
+    void cancelledProbeReleasesPermit() {
+        CircuitBreaker breaker = openedBreaker();
+        assertTrue(breaker.tryAcquire());
+        breaker.onCancelled();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.isCallPermitted());
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void cancelledCallDoesNotCountWhileClosed() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50, 100, 60_000, 60_000, 60_000);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onCancelled();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void failedProbeReopens() {
+        CircuitBreaker breaker = openedBreaker();
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,149 @@
+package org.skydream.cwhitelist;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpMatcherTest {
+
+    private static IpMatcher matcher(String... patterns) {
+        IpMatcher matcher = new IpMatcher();
+        for (String pattern : patterns) {
+            matcher.add(pattern);
+        }
+        return matcher;
+    }
+
+    @Test
+    void matchesExactIpv4() {
+        IpMatcher m = matcher("192.168.1.10");
+        assertTrue(m.matches("192.168.1.10"));
+        assertFalse(m.matches("192.168.1.1"));
+        assertFalse(m.matches("192.168.1.100"));
+    }
+
+    @Test
+    void matchesIpv4Cidr() {
+        IpMatcher m = matcher("10.0.0.0/8", "172.16.0.0/12", "203.0.113.7/32");
+        assertTrue(m.matches("10.255.0.1"));
+        assertTrue(m.matches("172.31.255.255"));
+        assertFalse(m.matches("172.32.0.0"));
+        assertTrue(m.matches("203.0.113.7"));
+        assertFalse(m.matches("203.0.113.8"));
+        assertFalse(m.matches("11.0.0.1"));
+    }
+
+    @Test
+    void zeroLengthPrefixMatchesEverythingInFamily() {
+        IpMatcher m = matcher("0.0.0.0/0");
+        assertTrue(m.matches("8.8.8.8"));
+        assertFalse(m.matches("2001:db8::1"));
+    }
+
+    @Test
+    void matchesSegmentWildcards() {
+        IpMatcher m = matcher("192.168.*.*", "10.1.*", "2001:db8:*");
+        assertTrue(m.matches("192.168.200.3"));
+        assertTrue(m.matches("10.1.2.3"));
+        assertFalse(m.matches("10.2.0.1"));
+        assertTrue(m.matches("2001:db8:1:2:3:4:5:6"));
+        assertFalse(m.matches("2001:db9::1"));
+    }
+
+    @Test
+    void matchAllRuleMatchesBothFamilies() {
+        IpMatcher m = matcher("*");
+        assertTrue(m.matches("1.2.3.4"));
+        assertTrue(m.matches("::1"));
+    }
+
+    @Test
+    void expandsIpv6DoubleColon() {
+        IpMatcher m = matcher("2001:db8::1", "::1", "fe80::/10");
+        assertTrue(m.matches("2001:db8:0:0:0:0:0:1"));
+        assertTrue(m.matches("2001:0db8::0001"));
+        assertTrue(m.matches("0:0:0:0:0:0:0:1"));
+        assertTrue(m.matches("fe80::abcd"));
+        assertTrue(m.matches("febf:ffff::1"));
+        assertFalse(m.matches("fec0::1"));
+        assertFalse(m.matches("2001:db8::2"));
+    }
+
+    @Test
+    void unspecifiedIpv6AddressIsAllZeroes() {
+        IpMatcher m = matcher("::");
+        assertTrue(m.matches("0:0:0:0:0:0:0:0"));
+        assertFalse(m.matches("::1"));
+    }
+
+    @Test
+    void ipv6CidrAndUpperCaseHex() {
+        IpMatcher m = matcher("2001:DB8::/32");
+        assertTrue(m.matches("2001:db8:ffff::1"));
+        assertFalse(m.matches("2001:db9::1"));
+    }
+
+    @Test
+    void ignoresScopeIdOnAddresses() {
+        IpMatcher m = matcher("fe80::1");
+        assertTrue(m.matches("fe80::1%eth0"));
+        assertTrue(m.matches("fe80:0:0:0:0:0:0:1%2"));
+        assertFalse(m.matches("fe80::2%eth0"));
+    }
+
+    @Test
+    void rejectsMalformedAddresses() {
+        IpMatcher m = matcher("0.0.0.0/0", "::/0");
+        assertFalse(m.matches(null));
+        assertFalse(m.matches("256.1.1.1"));
+        assertFalse(m.matches("1.2.3"));
+        assertFalse(m.matches("1::2::3"));
+        assertFalse(m.matches("1:2:3:4:5:6:7:8:9"));
+        assertFalse(m.matches("12345::1"));
+    }
+
+    @Test
+    void fallsBackToGlobForUnalignedWildcards() {
+        IpMatcher m = new IpMatcher();
+        assertFalse(m.add("192.168.1.1*"));
+        assertTrue(m.matches("192.168.1.1"));
+        assertTrue(m.matches("192.168.1.10"));
+        assertTrue(m.matches("192.168.1.199"));
+        assertFalse(m.matches("192.168.1.2"));
+
+        assertFalse(m.add("2001:DB8::1*"));
+        assertTrue(m.matches("2001:db8::1f"));
+        assertFalse(m.matches("2001:db8::2"));
+    }
+
+    @Test
+    void parseRuleReportsPrefixLength() {
+        long[] out = new long[2];
+        assertEquals(32, IpMatcher.parseRule("1.2.3.4", out));
+        assertEquals(24, IpMatcher.parseRule("1.2.3.*", out));
+        assertEquals(16, IpMatcher.parseRule("1.2.0.0/16", out));
+        assertEquals(128, IpMatcher.parseRule("::1", out));
+        assertEquals(48, IpMatcher.parseRule("2001:db8:1::*", out));
+        assertEquals(-1, IpMatcher.parseRule("1.2.3.4/33", out));
+        assertEquals(-1, IpMatcher.parseRule("1.2.*.4", out));
+        assertEquals(-1, IpMatcher.parseRule("1.2.3.1*", out));
+        assertEquals(-1, IpMatcher.parseRule("example.com", out));
+    }
+
+    @Test
+    void duplicateRulesAreCounted() {
+        IpMatcher m = matcher("10.0.0.0/8", "10.0.0.0/8");
+        assertEquals(2, m.size());
+        assertTrue(m.matches("10.1.1.1"));
+    }
+
+    @Test
+    void globMatchIsCaseInsensitive() {
+        assertTrue(IpMatcher.globMatch("ABC*", "abcdef"));
+        assertTrue(IpMatcher.globMatch("*", ""));
+        assertTrue(IpMatcher.globMatch("a*c*e", "abcde"));
+        assertFalse(IpMatcher.globMatch("a*c", "abcd"));
+    }
+}
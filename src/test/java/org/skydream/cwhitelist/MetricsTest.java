@@ -0,0 +1,38 @@
+package org.skydream.cwhitelist;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    @Test
+    void histogramPercentilesFallInBucketBounds() {
+        // 直接使用直方图实例，不受全局名称上限影响
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        long now = System.currentTimeMillis();
+        histogram.record(5_000_000, now);
+        histogram.record(5_000_000, now);
+        histogram.record(900_000_000, now);
+
+        Metrics.Window window = histogram.window(60_000);
+        assertEquals(3, window.count());
+        long p50 = window.percentileNanos(50);
+        assertTrue(p50 >= 5_000_000 && p50 < 7_000_000, "p50 " + p50);
+        assertTrue(window.percentileNanos(99) >= 900_000_000);
+    }
+
+    @Test
+    void stopsCreatingNamesPastTheLimit() {
+        for (int i = 0; i < Metrics.MAX_NAMES + 10; i++) {
+            Metrics.increment("test.unbounded." + i);
+            Metrics.recordNanos("test.unbounded." + i, 1000);
+        }
+        assertTrue(Metrics.counters().size() <= Metrics.MAX_NAMES + 1);
+        assertTrue(Metrics.histograms().size() <= Metrics.MAX_NAMES);
+        assertNull(Metrics.histogram("test.unbounded." + (Metrics.MAX_NAMES + 9)));
+        assertTrue(Metrics.count(Metrics.DROPPED_COUNTER) >= 20);
+    }
+}
@@ -0,0 +1,195 @@
+package org.skydream.cwhitelist;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhitelistJournalTest {
+    @TempDir
+    Path dir;
+
+    private static WhitelistManager.WhitelistEntry entry(String type, String value) {
+        return new WhitelistManager.WhitelistEntry(type, value);
+    }
+
+    private WhitelistJournal journal() {
+        return new WhitelistJournal(dir.resolve("cwhitelist_entries.journal"), WhitelistJournal.FsyncPolicy.NEVER, 1000);
+    }
+
+    @Test
+    void replaysRecordsInOrder() throws IOException {
+        WhitelistJournal journal = journal();
+        assertTrue(journal.open(null).isEmpty());
+        journal.append(true, entry("name", "Steve"));
+        journal.append(true, entry("ip", "10.0.0.0/8"));
+        journal.append(false, entry("name", "Steve"));
+        journal.close();
+
+        WhitelistJournal reopened = journal();
+        List<WhitelistJournal.Record> records = reopened.open(null);
+        reopened.close();
+
+        assertEquals(List.of(
+                new WhitelistJournal.Record(true, entry("name", "Steve")),
+                new WhitelistJournal.Record(true, entry("ip", "10.0.0.0/8")),
+                new WhitelistJournal.Record(false, entry("name", "Steve"))), records);
+        assertEquals(3, reopened.getRecordCount());
+    }
+
+    @Test
+    void replaysValuesContainingSeparators() throws IOException {
+        List<String> values = List.of("a\tb", "line1\nline2", "cr\rlf", "back\\slash", "\\t literal", "trailing\\");
+        WhitelistJournal journal = journal();
+        journal.open(null);
+        for (String value : values) {
+            journal.append(true, entry("name", value));
+        }
+        journal.close();
+
+        WhitelistJournal reopened = journal();
+        List<WhitelistJournal.Record> records = reopened.open(null);
+        reopened.close();
+
+        assertEquals(values.size(), records.size());
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(values.get(i), records.get(i).entry().getValue());
+        }
+    }
+
+    @Test
+    void skipsTornAndMalformedLines() throws IOException {
+        Path path = dir.resolve("cwhitelist_entries.journal");
+        WhitelistJournal journal = journal();
+        journal.open(null);
+        journal.append(true, entry("name", "Alex"));
+        journal.close();
+        Files.writeString(path, "garbage\nA\tname\tbad\\escape\nA\tna", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        WhitelistJournal reopened = journal();
+        List<WhitelistJournal.Record> records = reopened.open(null);
+        reopened.close();
+
+        assertEquals(List.of(new WhitelistJournal.Record(true, entry("name", "Alex"))), records);
+    }
+
+    @Test
+    void replaysRotatedLogBeforeCurrentLog() throws IOException {
+        Path path = dir.resolve("cwhitelist_entries.journal");
+        WhitelistJournal journal = journal();
+        journal.open(null);
+        journal.append(true, entry("name", "Old"));
+        journal.rotate();
+        journal.append(false, entry("name", "Old"));
+        journal.close();
+        assertTrue(Files.exists(path.resolveSibling(path.getFileName() + ".old")));
+
+        WhitelistJournal reopened = journal();
+        List<WhitelistJournal.Record> records = reopened.open(null);
+        assertEquals(List.of(
+                new WhitelistJournal.Record(true, entry("name", "Old")),
+                new WhitelistJournal.Record(false, entry("name", "Old"))), records);
+
+        reopened.commitRotation();
+        reopened.close();
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".old")));
+    }
+
+    @Test
+    void keepsRecordsWhenSnapshotMatches() throws IOException {
+        String fingerprint = WhitelistJournal.fingerprint("[]".getBytes(StandardCharsets.UTF_8));
+        WhitelistJournal journal = journal();
+        journal.open(fingerprint);
+        journal.rotate();
+        journal.markSnapshot(fingerprint);
+        journal.commitRotation();
+        journal.append(true, entry("name", "Steve"));
+        journal.close();
+
+        WhitelistJournal reopened = journal();
+        List<WhitelistJournal.Record> records = reopened.open(fingerprint);
+        reopened.close();
+
+        assertEquals(List.of(new WhitelistJournal.Record(true, entry("name", "Steve"))), records);
+        assertEquals(1, reopened.getRecordCount());
+    }
+
+    @Test
+    void acceptsEitherFingerprintDuringUnfinishedCompaction() throws IOException {
+        String before = WhitelistJournal.fingerprint("[]".getBytes(StandardCharsets.UTF_8));
+        String after = WhitelistJournal.fingerprint("[{}]".getBytes(StandardCharsets.UTF_8));
+        WhitelistJournal journal = journal();
+        journal.open(before);
+        journal.markSnapshot(before);
+        journal.append(true, entry("name", "Steve"));
+        journal.rotate();
+        journal.markSnapshot(after);
+        // 崩溃：JSON 尚未替换，.old 仍在
+        journal.close();
+
+        for (String fingerprint : List.of(before, after)) {
+            WhitelistJournal reopened = journal();
+            assertEquals(1, reopened.open(fingerprint).size());
+            reopened.close();
+        }
+    }
+
+    @Test
+    void discardsRecordsWhenSnapshotWasEdited() throws IOException {
+        Path path = dir.resolve("cwhitelist_entries.journal");
+        String original = WhitelistJournal.fingerprint("[]".getBytes(StandardCharsets.UTF_8));
+        String edited = WhitelistJournal.fingerprint("[ ]".getBytes(StandardCharsets.UTF_8));
+        WhitelistJournal journal = journal();
+        journal.open(original);
+        journal.markSnapshot(original);
+        journal.append(true, entry("name", "Steve"));
+        journal.rotate();
+        journal.append(true, entry("name", "Alex"));
+        journal.close();
+
+        WhitelistJournal reopened = journal();
+        assertTrue(reopened.open(edited).isEmpty());
+        assertEquals(0, reopened.getRecordCount());
+        assertFalse(reopened.hasPendingRecords());
+
+        // 新记录不再接在过时的指纹后面
+        reopened.append(true, entry("name", "Notch"));
+        reopened.close();
+        WhitelistJournal again = journal();
+        assertEquals(List.of(new WhitelistJournal.Record(true, entry("name", "Notch"))), again.open(edited));
+        again.close();
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".old")));
+    }
+
+    @Test
+    void journalWithoutFingerprintIsReplayed() throws IOException {
+        WhitelistJournal journal = journal();
+        journal.open(null);
+        journal.append(true, entry("name", "Steve"));
+        journal.close();
+
+        WhitelistJournal reopened = journal();
+        assertEquals(1, reopened.open("0:0").size());
+        reopened.close();
+    }
+
+    @Test
+    void escapeRoundTrips() {
+        for (String value : List.of("", "plain", "\t\n\r\\", "\\\\n")) {
+            assertEquals(value, WhitelistJournal.unescape(WhitelistJournal.escape(value)));
+        }
+        assertEquals("plain", WhitelistJournal.escape("plain"));
+        assertNull(WhitelistJournal.unescape("bad\\x"));
+        assertNull(WhitelistJournal.unescape("bad\\"));
+    }
+}
@@ -0,0 +1,123 @@
+package org.skydream.cwhitelist;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WhitelistSnapshotTest {
+
+    private static WhitelistManager.WhitelistEntry entry(String type, String value) {
+        return new WhitelistManager.WhitelistEntry(type, value);
+    }
+
+    @Test
+    void derivedSnapshotAppliesChanges() {
+        WhitelistManager.Snapshot base = new WhitelistManager.Snapshot(1, List.of(
+                entry("name", "Steve"), entry("uuid", "00000000-0000-0000-0000-000000000001"), entry("ip", "10.0.0.0/8")));
+
+        WhitelistManager.Snapshot next = base.withChanges(
+                List.of(entry("name", "Alex"), entry("ip", "192.168.0.0/16")),
+                List.of(entry("name", "STEVE"), entry("ip", "10.0.0.0/8")));
+
+        assertEquals(2, next.version);
+        assertEquals(3, next.size());
+        assertFalse(next.contains(entry("name", "Steve")));
+        assertTrue(next.contains(entry("name", "alex")));
+        assertFalse(next.index.containsName("steve"));
+        assertTrue(next.index.containsName("ALEX"));
+        assertTrue(next.index.containsUuid("00000000-0000-0000-0000-000000000001"));
+        assertFalse(next.index.matchesIp("10.1.2.3"));
+        assertTrue(next.index.matchesIp("192.168.1.1"));
+        assertEquals(List.of(entry("uuid", "00000000-0000-0000-0000-000000000001"),
+                entry("name", "Alex"), entry("ip", "192.168.0.0/16")), next.entries());
+
+        // 原快照不受影响
+        assertTrue(base.contains(entry("name", "Steve")));
+        assertTrue(base.index.matchesIp("10.1.2.3"));
+    }
+
+    @Test
+    void readdingRemovedEntryRestoresIt() {
+        WhitelistManager.Snapshot base = new WhitelistManager.Snapshot(1, List.of(entry("name", "Steve")));
+        WhitelistManager.Snapshot removed = base.withChanges(List.of(), List.of(entry("name", "Steve")));
+        WhitelistManager.Snapshot restored = removed.withChanges(List.of(entry("name", "Steve")), List.of());
+
+        assertEquals(0, removed.size());
+        assertTrue(restored.contains(entry("name", "Steve")));
+        assertTrue(restored.index.containsName("Steve"));
+        assertEquals(base.contentHash, restored.contentHash);
+        assertTrue(restored.sameEntries(base));
+    }
+
+    @Test
+    void derivedEntriesAreMergedOnce() {
+        WhitelistManager.Snapshot base = new WhitelistManager.Snapshot(1, List.of(entry("ip", "10.0.0.0/8")));
+        WhitelistManager.Snapshot next = base.withChanges(List.of(entry("name", "Steve")), List.of());
+        assertTrue(next.index.matchesIp("10.0.0.1"));
+        assertSame(next.entries(), next.entries());
+        assertEquals(List.of(entry("ip", "10.0.0.0/8"), entry("name", "Steve")), next.entries());
+    }
+
+    @Test
+    void matchesFullRebuildAfterManyChanges() {
+        Random random = new Random(42);
+        String[] types = {"name", "uuid", "ip"};
+        List<WhitelistManager.WhitelistEntry> initial = new ArrayList<>();
+        Set<WhitelistManager.WhitelistEntry> model = new LinkedHashSet<>();
+        for (int i = 0; i < 500; i++) {
+            WhitelistManager.WhitelistEntry e = randomEntry(random, types);
+            initial.add(e);
+            model.add(e);
+        }
+
+        WhitelistManager.Snapshot snapshot = new WhitelistManager.Snapshot(1, initial);
+        for (int step = 0; step < 2000; step++) {
+            List<WhitelistManager.WhitelistEntry> added = new ArrayList<>();
+            List<WhitelistManager.WhitelistEntry> removed = new ArrayList<>();
+            int addCount = step % 100 == 0 ? 150 : random.nextInt(3);
+            for (int i = random.nextInt(3); i > 0; i--) {
+                removed.add(randomEntry(random, types));
+            }
+            for (int i = 0; i < addCount; i++) {
+                added.add(randomEntry(random, types));
+            }
+            model.removeAll(removed);
+            model.addAll(added);
+            snapshot = snapshot.withChanges(added, removed);
+
+            assertEquals(model.size(), snapshot.size());
+            WhitelistManager.WhitelistEntry probe = randomEntry(random, types);
+            assertEquals(model.contains(probe), snapshot.contains(probe));
+        }
+
+        WhitelistManager.Snapshot rebuilt = new WhitelistManager.Snapshot(snapshot.version, new ArrayList<>(model));
+        assertEquals(rebuilt.contentHash, snapshot.contentHash);
+        assertTrue(rebuilt.sameEntries(snapshot));
+        assertEquals(model, new HashSet<>(snapshot.entries()));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(rebuilt.index.containsName("p" + i), snapshot.index.containsName("p" + i));
+            assertEquals(rebuilt.index.containsUuid("p" + i), snapshot.index.containsUuid("p" + i));
+        }
+        for (int i = 0; i < 256; i++) {
+            String ip = "10." + i + ".0.1";
+            assertEquals(rebuilt.index.matchesIp(ip), snapshot.index.matchesIp(ip));
+        }
+    }
+
+    private static WhitelistManager.WhitelistEntry randomEntry(Random random, String[] types) {
+        String type = types[random.nextInt(types.length)];
+        int n = random.nextInt(1000);
+        String value = type.equals("ip") ? "10." + (n % 256) + ".0.0/16" : (random.nextBoolean() ? "P" : "p") + n;
+        return entry(type, value);
+    }
+}